@@ -20,6 +20,7 @@ package com.opensource.bitmaploader.test;
 
 import android.app.Application;
 
+import com.opensource.bitmaploader.DiskCacheBudget;
 import com.opensource.bitmaploader.ImageWorker;
 
 
@@ -33,6 +34,9 @@ public class TestApp extends Application{
         super.onCreate();
 
         ImageWorker.setDebug(BuildConfig.DEBUG);
+
+        // All disk caches (thumbs, images and http) together use at most 40MB
+        DiskCacheBudget.setMaxByteSize(40 * 1024 * 1024);
     }
 
 }
@@ -41,6 +41,7 @@ import android.widget.Toast;
 import com.opensource.bitmaploader.ImageCache;
 import com.opensource.bitmaploader.ImageFetcher;
 import com.opensource.bitmaploader.ImageWorker;
+import com.opensource.bitmaploader.Priority;
 import com.opensource.bitmaploader.Utils;
 import com.opensource.bitmaploader.test.R;
 import com.opensource.bitmaploader.test.provider.Images;
@@ -69,7 +70,12 @@ public class ImageDetailActivity extends FragmentActivity implements OnClickList
 
         // The ImageWorker takes care of loading images into our ImageView children asynchronously
 //        mPicWorker = new ImageFetcher(this, displaymetrics.widthPixels, displaymetrics.heightPixels);
-        mPicWorker = new ImageFetcher(this, getResources().getDisplayMetrics().widthPixels);
+        final ImageFetcher picFetcher = new ImageFetcher(this, getResources().getDisplayMetrics().widthPixels);
+        // Full screen pictures are large, show a preview while they are downloading
+        picFetcher.setProgressivePreview(true);
+        // The picture on screen goes before the thumbnails of the strip
+        picFetcher.setPriority(Priority.IMMEDIATE);
+        mPicWorker = picFetcher;
         File cachePath = null;
         if (Utils.hasExternalStorage()) {
             File appRoot = new File(Environment.getExternalStorageDirectory(), "BitmapLoader");
@@ -78,6 +84,8 @@ public class ImageDetailActivity extends FragmentActivity implements OnClickList
         ImageCache.ImageCacheParams picCacheParams = new ImageCache.ImageCacheParams(cachePath, IMAGE_CACHE_DIR);
         picCacheParams.memCacheSize = 1024 * 1024 * Utils.getMemoryClass(this) / 3;
         picCacheParams.diskCacheEnabled = true;
+        // Downloaded originals cost network to get again, keep more of them than resized images
+        picCacheParams.httpCacheWeight = 2;
         mPicWorker.setAdapter(Images.imageWorkerUrlsAdapter);
         mPicWorker.setImageCache(new ImageCache(this, picCacheParams));
         mPicWorker.setImageFadeIn(false);
@@ -50,6 +50,8 @@ import com.opensource.bitmaploader.ImageCache;
 import com.opensource.bitmaploader.ImageFetcher;
 import com.opensource.bitmaploader.ImageResizer;
 import com.opensource.bitmaploader.LoadListener;
+import com.opensource.bitmaploader.PauseOnScrollListener;
+import com.opensource.bitmaploader.ScrollPrefetcher;
 import com.opensource.bitmaploader.Utils;
 import com.opensource.bitmaploader.test.BuildConfig;
 import com.opensource.bitmaploader.test.R;
@@ -70,6 +72,7 @@ public class ImageGridFragment extends Fragment implements AdapterView.OnItemCli
     private int mImageThumbSpacing;
     private ImageAdapter mAdapter;
     private ImageResizer mImageWorker;
+    private ScrollPrefetcher mPrefetcher;
 
     /**
      * Empty constructor as per the Fragment documentation
@@ -114,6 +117,11 @@ public class ImageGridFragment extends Fragment implements AdapterView.OnItemCli
         mImageWorker.setLoadFailedImage(R.drawable.ic_launcher);
         mImageWorker.setImageCache(new ImageCache(getActivity(), cacheParams));
         mImageWorker.setImageFadeIn(false);
+
+        // Fetch the thumbnails the grid is scrolling towards before they are shown
+        mPrefetcher = new ScrollPrefetcher(mImageWorker);
+        // Hold the loads of the cells flashing past during a fling
+        mPrefetcher.setOnScrollListener(new PauseOnScrollListener(mImageWorker));
     }
 
     @Override
@@ -124,6 +132,7 @@ public class ImageGridFragment extends Fragment implements AdapterView.OnItemCli
         final GridView mGridView = (GridView) v.findViewById(R.id.gridView);
         mGridView.setAdapter(mAdapter);
         mGridView.setOnItemClickListener(this);
+        mGridView.setOnScrollListener(mPrefetcher);
 
         // This listener is used to get the final width of the GridView and then calculate the
         // number of columns and the width of each column. The width of each column is variable
@@ -140,6 +149,8 @@ public class ImageGridFragment extends Fragment implements AdapterView.OnItemCli
                                 final int columnWidth =
                                         (mGridView.getWidth() / numColumns) - mImageThumbSpacing;
                                 mAdapter.setNumColumns(numColumns);
+                                // The first row of the grid is empty
+                                mPrefetcher.setHeaderCount(numColumns);
                                 mAdapter.setItemHeight(columnWidth);
                                 if (BuildConfig.DEBUG) {
                                     Log.d(TAG, "onCreateView - numColumns set to " + numColumns);
@@ -164,6 +175,7 @@ public class ImageGridFragment extends Fragment implements AdapterView.OnItemCli
     public void onPause() {
         super.onPause();
         mImageWorker.setExitTasksEarly(true);
+        mPrefetcher.cancel();
     }
 
     @Override
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.LinkedList;
+
+/**
+ * A bounded pool of fixed size byte arrays, used to hold small downloads in memory until they
+ * are decoded, so that decoding many small images allocates no buffer in the steady state.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class ByteArrayPool {
+
+    public static final int ARRAY_SIZE = 64 * 1024; // 64KB
+    private static final int MAX_POOL_SIZE = 4;
+
+    private static final LinkedList<byte[]> sPool = new LinkedList<byte[]>();
+
+    private ByteArrayPool() {
+    }
+
+    /**
+     * Get an array of {@link #ARRAY_SIZE} bytes from the pool, or a new one if the pool is
+     * empty. The content of the array is undefined.
+     *
+     * @return the array
+     */
+    public static byte[] acquire() {
+        synchronized (sPool) {
+            final byte[] array = sPool.poll();
+            if (array != null) {
+                return array;
+            }
+        }
+        return new byte[ARRAY_SIZE];
+    }
+
+    /**
+     * Give an array back to the pool. The array must not be used after this.
+     *
+     * @param array The array got from {@link #acquire()}
+     */
+    public static void release(byte[] array) {
+        if (array == null || array.length != ARRAY_SIZE) {
+            return;
+        }
+        synchronized (sPool) {
+            if (sPool.size() < MAX_POOL_SIZE) {
+                sPool.offer(array);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * A bounded pool of fixed size heap {@link ByteBuffer}s used to stream downloads to files, so
+ * that a download allocates no buffer in the steady state whatever the size of the image.<br>
+ * <p>The buffers are not direct: the body of a {@link HttpTransport.Response} is an
+ * InputStream, which can only read into an array, so the array of the buffer is read into and
+ * the buffer is written to the file channel as it is, with no copy in between.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class ByteBufferPool {
+
+    public static final int BUFFER_SIZE = 32 * 1024; // 32KB
+    private static final int MAX_POOL_SIZE = 8;
+
+    private static final LinkedList<ByteBuffer> sPool = new LinkedList<ByteBuffer>();
+
+    private ByteBufferPool() {
+    }
+
+    /**
+     * Get a cleared buffer of {@link #BUFFER_SIZE} bytes from the pool, or a new one if the
+     * pool is empty.
+     *
+     * @return the buffer
+     */
+    public static ByteBuffer acquire() {
+        synchronized (sPool) {
+            final ByteBuffer buffer = sPool.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Give a buffer back to the pool. The buffer must not be used after this.
+     *
+     * @param buffer The buffer got from {@link #acquire()}
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != BUFFER_SIZE || !buffer.hasArray()) {
+            return;
+        }
+        buffer.clear();
+        synchronized (sPool) {
+            if (sPool.size() < MAX_POOL_SIZE) {
+                sPool.offer(buffer);
+            }
+        }
+    }
+}
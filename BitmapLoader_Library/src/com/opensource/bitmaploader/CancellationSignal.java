@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.ArrayList;
+
+/**
+ * Tells the work of a load that it has been cancelled, like android.os.CancellationSignal
+ * (which needs API 16) but with several listeners, because one load may wait on a shared
+ * download while the download aborts its connection.<br>
+ * <p>The work checks {@link #isCanceled()} between steps, and registers a listener to stop a
+ * step which blocks, for example to abort a connection or a decode.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class CancellationSignal {
+
+    // Guarded by this. A signal seldom has more than one listener at a time, so the first one
+    // needs no list.
+    private OnCancelListener mListener = null;
+    private ArrayList<OnCancelListener> mMoreListeners = null;
+    private volatile boolean mCanceled = false;
+
+    /**
+     * Called when the signal is cancelled, in the thread which cancels it.
+     */
+    public interface OnCancelListener {
+        public void onCancel();
+    }
+
+    /**
+     * Whether the signal has been cancelled.
+     *
+     * @return true if cancelled
+     */
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Cancel the signal and call its listeners. Does nothing if it is already cancelled.
+     */
+    public void cancel() {
+        final OnCancelListener listener;
+        final ArrayList<OnCancelListener> moreListeners;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            listener = mListener;
+            moreListeners = mMoreListeners;
+            mListener = null;
+            mMoreListeners = null;
+        }
+        if (listener != null) {
+            listener.onCancel();
+        }
+        if (moreListeners != null) {
+            for (int i = 0; i < moreListeners.size(); i++) {
+                moreListeners.get(i).onCancel();
+            }
+        }
+    }
+
+    /**
+     * Add a listener. It is called at once, in the current thread, if the signal is already
+     * cancelled.
+     *
+     * @param listener The listener
+     */
+    public void addOnCancelListener(OnCancelListener listener) {
+        synchronized (this) {
+            if (!mCanceled) {
+                if (mListener == null) {
+                    mListener = listener;
+                } else {
+                    if (mMoreListeners == null) {
+                        mMoreListeners = new ArrayList<OnCancelListener>(2);
+                    }
+                    mMoreListeners.add(listener);
+                }
+                return;
+            }
+        }
+        listener.onCancel();
+    }
+
+    /**
+     * Remove a listener, when the step it stops is over.
+     *
+     * @param listener The listener
+     */
+    public void removeOnCancelListener(OnCancelListener listener) {
+        synchronized (this) {
+            if (mListener == listener) {
+                mListener = null;
+            } else if (mMoreListeners != null) {
+                mMoreListeners.remove(listener);
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * A circuit breaker per host, which makes downloads from a host that keeps failing fail at once
+ * instead of each waiting for its own connection timeout.<br>
+ * <p>After {@link #DEFAULT_FAILURE_THRESHOLD} transient failures in a row the circuit of a host
+ * opens: downloads from it are refused without touching the network. A probe request is then
+ * made in the background after a delay, which doubles after each failed probe. The circuit
+ * closes as soon as a probe, or any other request, gets an answer from the host.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_PROBE_DELAY = 10 * 1000; // 10s
+    public static final long MAX_PROBE_DELAY = 5 * 60 * 1000; // 5 minutes
+
+    private static final ScheduledThreadPoolExecutor sProbeExecutor =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "CircuitBreaker probe");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final int mFailureThreshold;
+    private final long mProbeDelay;
+    private final Map<String, HostState> mHosts = new HashMap<String, HostState>();
+
+    /**
+     * Create a circuit breaker with the default settings.
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_PROBE_DELAY);
+    }
+
+    /**
+     * Create a circuit breaker.
+     *
+     * @param failureThreshold The failures in a row which open the circuit of a host
+     * @param probeDelay       The delay before the first probe of a host in milliseconds
+     */
+    public CircuitBreaker(int failureThreshold, long probeDelay) {
+        mFailureThreshold = Math.max(failureThreshold, 1);
+        mProbeDelay = Math.max(probeDelay, 0);
+    }
+
+    /**
+     * Whether a request to the host of a URL may be made.
+     *
+     * @param url The URL of the request
+     * @return false if the circuit of the host is open
+     */
+    public boolean allowRequest(String url) {
+        synchronized (mHosts) {
+            final HostState state = mHosts.get(getHost(url));
+            return state == null || !state.mmOpen;
+        }
+    }
+
+    /**
+     * Whether the circuit of a host is open.
+     *
+     * @param host The host
+     * @return true if requests to the host are refused
+     */
+    public boolean isOpen(String host) {
+        synchronized (mHosts) {
+            final HostState state = mHosts.get(host == null ? "" : host.toLowerCase(Locale.US));
+            return state != null && state.mmOpen;
+        }
+    }
+
+    /**
+     * Record that the host of a URL answered, whatever the status code.
+     *
+     * @param url The URL of the request
+     */
+    public void onSuccess(String url) {
+        synchronized (mHosts) {
+            final HostState state = mHosts.remove(getHost(url));
+            if (state != null && state.mmOpen) {
+                Log.i(TAG, "Circuit closed - " + state.mmHost);
+            }
+        }
+    }
+
+    /**
+     * Record a transient failure of a request to the host of a URL, this may open its circuit.
+     *
+     * @param url       The URL of the request
+     * @param transport The transport to probe the host with
+     */
+    public void onFailure(String url, HttpTransport transport) {
+        final String host = getHost(url);
+        synchronized (mHosts) {
+            HostState state = mHosts.get(host);
+            if (state == null) {
+                state = new HostState(host);
+                mHosts.put(host, state);
+            }
+            state.mmFailures++;
+            if (state.mmOpen || state.mmFailures < mFailureThreshold) {
+                return;
+            }
+            Log.w(TAG, "Circuit opened - " + host);
+            state.mmOpen = true;
+            state.mmProbeDelay = mProbeDelay;
+            scheduleProbe(state, url, transport);
+        }
+    }
+
+    /**
+     * Must hold mHosts.
+     */
+    private void scheduleProbe(final HostState state, final String url, final HttpTransport transport) {
+        sProbeExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mHosts) {
+                    if (mHosts.get(state.mmHost) != state) {
+                        // Closed by another request meanwhile
+                        return;
+                    }
+                }
+                if (probe(url, transport)) {
+                    onSuccess(url);
+                    return;
+                }
+                synchronized (mHosts) {
+                    if (mHosts.get(state.mmHost) == state) {
+                        state.mmProbeDelay = Math.min(Math.max(state.mmProbeDelay * 2, 1), MAX_PROBE_DELAY);
+                        scheduleProbe(state, url, transport);
+                    }
+                }
+            }
+        }, state.mmProbeDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ask for the first byte of the URL, any answer below 500 means the host is back.
+     */
+    private static boolean probe(String url, HttpTransport transport) {
+        HttpTransport.Response response = null;
+        try {
+            final Map<String, String> headers = new HashMap<String, String>();
+            headers.put("Range", "bytes=0-0");
+            response = transport.execute(url, headers);
+            return response.getResponseCode() < 500;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    private static String getHost(String url) {
+        final String host = url == null ? null : Uri.parse(url).getHost();
+        return host == null ? "" : host.toLowerCase(Locale.US);
+    }
+
+    private static class HostState {
+        private final String mmHost;
+        private int mmFailures = 0;
+        private boolean mmOpen = false;
+        private long mmProbeDelay;
+
+        public HostState(String host) {
+            mmHost = host;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.util.Log;
+
+/**
+ * A global disk budget shared by all the {@link DiskLruCache}s (one per
+ * {@link ImageCache.ImageCacheParams#uniqueName} plus the http cache).<br>
+ * <p>Each cache keeps its own size and item limits. When the total size of all registered caches
+ * goes over the budget, entries are evicted from the cache with the lowest value per byte, which
+ * is its weight divided by the bytes it uses, until the total fits again.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class DiskCacheBudget {
+    private static final String TAG = "DiskCacheBudget";
+
+    public static final float DEFAULT_WEIGHT = 1.0f;
+
+    private static final Map<DiskLruCache, Float> sWeights = new WeakHashMap<DiskLruCache, Float>();
+    private static long sMaxByteSize = 0;
+
+    private DiskCacheBudget() {
+    }
+
+    /**
+     * Set the global disk budget for all caches.
+     *
+     * @param maxByteSize The max size in bytes, 0 or less to disable the global budget.
+     */
+    public static void setMaxByteSize(long maxByteSize) {
+        synchronized (sWeights) {
+            sMaxByteSize = maxByteSize;
+        }
+        trim();
+    }
+
+    /**
+     * Get the global disk budget.
+     *
+     * @return The max size in bytes, 0 if disabled.
+     */
+    public static long getMaxByteSize() {
+        synchronized (sWeights) {
+            return sMaxByteSize;
+        }
+    }
+
+    /**
+     * Register a cache to share the budget, registering again just changes its weight, the last
+     * weight registered wins.
+     *
+     * @param cache  The cache
+     * @param weight The weight of the cache, a cache with a bigger weight is allowed to use more
+     *               of the budget.
+     */
+    public static void register(DiskLruCache cache, float weight) {
+        if (cache == null) {
+            return;
+        }
+        final Float newWeight = weight > 0 ? weight : DEFAULT_WEIGHT;
+        synchronized (sWeights) {
+            if (newWeight.equals(sWeights.put(cache, newWeight))) {
+                // Nothing changed
+                return;
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Unregister a cache, the cache will not be counted or evicted by the budget any more.
+     *
+     * @param cache The cache
+     */
+    public static void unregister(DiskLruCache cache) {
+        synchronized (sWeights) {
+            sWeights.remove(cache);
+        }
+    }
+
+    /**
+     * Get the total size of the registered caches.
+     *
+     * @return size in bytes
+     */
+    public static long getTotalByteSize() {
+        synchronized (sWeights) {
+            long total = 0;
+            for (DiskLruCache cache : sWeights.keySet()) {
+                total += cache.getCacheByteSize();
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Evict entries until the registered caches fit the budget. This is called by the caches
+     * after an entry is added. Callers must not hold the lock of a cache.
+     */
+    static void trim() {
+        synchronized (sWeights) {
+            if (sMaxByteSize <= 0) {
+                return;
+            }
+            long total = getTotalByteSize();
+            while (total > sMaxByteSize) {
+                final DiskLruCache cache = findLowestValueCache();
+                if (cache == null) {
+                    return;
+                }
+                final long removed = cache.removeEldest();
+                if (removed <= 0) {
+                    // Entries without a file, take a fresh measure
+                    final long newTotal = getTotalByteSize();
+                    if (newTotal >= total) {
+                        return;
+                    }
+                    total = newTotal;
+                } else {
+                    total -= removed;
+                }
+                if (ImageWorker.DEBUG) {
+                    Log.d(TAG, "trim - removed " + removed + " bytes, total " + total);
+                }
+            }
+        }
+    }
+
+    private static DiskLruCache findLowestValueCache() {
+        DiskLruCache lowest = null;
+        float lowestValue = Float.MAX_VALUE;
+        for (Map.Entry<DiskLruCache, Float> entry : sWeights.entrySet()) {
+            final long size = entry.getKey().getCacheByteSize();
+            if (size <= 0) {
+                continue;
+            }
+            final float value = entry.getValue() / size;
+            if (value < lowestValue) {
+                lowestValue = value;
+                lowest = entry.getKey();
+            }
+        }
+        return lowest;
+    }
+}
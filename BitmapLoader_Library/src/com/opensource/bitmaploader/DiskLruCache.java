@@ -32,8 +32,12 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -50,6 +54,19 @@ import java.util.Map.Entry;
 public class DiskLruCache {
     private static final String TAG = "DiskLruCache";
     private static final String CACHE_FILENAME_PREFIX = "Cache_";
+    /**
+     * Suffix of the metadata file kept next to a cache file, see {@link HttpCacheEntry}.
+     */
+    static final String SIDECAR_SUFFIX = ".meta";
+    /**
+     * Suffix of a file being written, which becomes a cache file when it is complete.
+     */
+    static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Age after which a file being written is taken as abandoned, like a partial download
+     * which was never resumed, and deleted when the cache is opened.
+     */
+    static final long TEMP_FILE_TTL = 24 * 60 * 60 * 1000L; // 1 day
     /**
      * A filename filter to use to identify the cache filenames which have CACHE_FILENAME_PREFIX
      * prepended.
@@ -66,10 +83,12 @@ public class DiskLruCache {
     private final Map<String, String> mLinkedHashMap =
             Collections.synchronizedMap(new LinkedHashMap<String, String>(
                     INITIAL_CAPACITY, LOAD_FACTOR, true));
+    // The length of each entry when it was put, files may be replaced in place after that
+    private final Map<String, Long> mByteSizes = new HashMap<String, Long>();
     private final File mCacheDir;
     private int maxCacheItemSize = 128; // 128 item default
     private int cacheSize = 0;
-    private int cacheByteSize = 0;
+    private volatile long cacheByteSize = 0;
     private long maxCacheByteSize = 1024 * 1024 * 5; // 5MB default
     private CompressFormat mCompressFormat = CompressFormat.JPEG;
     private int mCompressQuality = 70;
@@ -85,6 +104,7 @@ public class DiskLruCache {
     private DiskLruCache(File cacheDir, long maxByteSize) {
         mCacheDir = cacheDir;
         maxCacheByteSize = maxByteSize;
+        loadExistingFiles();
     }
 
     /**
@@ -223,12 +243,84 @@ public class DiskLruCache {
                 }
             }
         }
+        // Must be called without holding our lock, the budget may evict from other caches
+        DiskCacheBudget.trim();
+    }
+
+    /**
+     * Add a file which has been written to {@link #createFilePath(String)} to the disk cache, so
+     * that it is counted and evicted like the other entries. The file may replace the one of an
+     * existing entry, the length recorded for the old entry is given back.
+     *
+     * @param key  A unique identifier for the file.
+     * @param file The file in the cache directory.
+     */
+    public void put(String key, File file) {
+        synchronized (mLinkedHashMap) {
+            if (mLinkedHashMap.remove(key) != null) {
+                final Long oldSize = mByteSizes.remove(key);
+                if (oldSize != null) {
+                    cacheByteSize -= oldSize;
+                }
+            }
+            put(key, file.getAbsolutePath());
+            flushCache();
+        }
+        DiskCacheBudget.trim();
     }
 
     private void put(String key, String file) {
-        mLinkedHashMap.put(key, file);
-        cacheSize = mLinkedHashMap.size();
-        cacheByteSize += new File(file).length();
+        synchronized (mLinkedHashMap) {
+            if (mLinkedHashMap.put(key, file) == null) {
+                final long size = new File(file).length();
+                mByteSizes.put(key, size);
+                cacheByteSize += size;
+            }
+            cacheSize = mLinkedHashMap.size();
+        }
+    }
+
+    /**
+     * Add the cache files found in the cache directory to the LRU map, oldest first, so that
+     * the size of the cache is known before anything is put.
+     */
+    private void loadExistingFiles() {
+        final File[] files = mCacheDir.listFiles(cacheFileFilter);
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long l = lhs.lastModified();
+                final long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        final long now = System.currentTimeMillis();
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Not an entry, and not counted in the cache size, so don't keep it forever
+                if (now - file.lastModified() > TEMP_FILE_TTL) {
+                    file.delete();
+                    new File(file.getPath() + SIDECAR_SUFFIX).delete();
+                }
+                continue;
+            }
+            if (name.endsWith(SIDECAR_SUFFIX)) {
+                // Not an entry
+                continue;
+            }
+            try {
+                put(URLDecoder.decode(name.substring(CACHE_FILENAME_PREFIX.length()), "UTF-8"),
+                        file.getAbsolutePath());
+            } catch (final UnsupportedEncodingException e) {
+                Log.e(TAG, "loadExistingFiles - " + e);
+            } catch (final IllegalArgumentException e) {
+                Log.e(TAG, "loadExistingFiles - " + e);
+            }
+        }
     }
 
     /**
@@ -245,21 +337,67 @@ public class DiskLruCache {
 
         while (count < MAX_REMOVALS &&
                 (cacheSize > maxCacheItemSize || cacheByteSize > maxCacheByteSize)) {
-            eldestEntry = mLinkedHashMap.entrySet().iterator().next();
-            eldestFile = new File(eldestEntry.getValue());
-            eldestFileSize = eldestFile.length();
+            removeEldest();
+            count++;
+        }
+    }
+
+    /**
+     * Remove the least recently used entry.
+     *
+     * @return The size of the removed file in bytes, 0 if the cache is empty.
+     */
+    public long removeEldest() {
+        synchronized (mLinkedHashMap) {
+            if (mLinkedHashMap.isEmpty()) {
+                return 0;
+            }
+            final Entry<String, String> eldestEntry = mLinkedHashMap.entrySet().iterator().next();
+            final File eldestFile = new File(eldestEntry.getValue());
+            final Long recordedSize = mByteSizes.remove(eldestEntry.getKey());
+            final long eldestFileSize = null == recordedSize ? 0 : recordedSize;
             mLinkedHashMap.remove(eldestEntry.getKey());
             eldestFile.delete();
+            new File(eldestFile.getPath() + SIDECAR_SUFFIX).delete();
             cacheSize = mLinkedHashMap.size();
             cacheByteSize -= eldestFileSize;
-            count++;
             if (ImageWorker.DEBUG) {
-                Log.d(TAG, "flushCache - Removed cache file, " + eldestFile + ", "
+                Log.d(TAG, "removeEldest - Removed cache file, " + eldestFile + ", "
                         + eldestFileSize);
             }
+            return eldestFileSize;
+        }
+    }
+
+    /**
+     * Remove an entry and delete its file.
+     *
+     * @param key The unique identifier of the entry
+     */
+    public void remove(String key) {
+        synchronized (mLinkedHashMap) {
+            final String file = mLinkedHashMap.remove(key);
+            final Long size = mByteSizes.remove(key);
+            if (size != null) {
+                cacheByteSize -= size;
+            }
+            cacheSize = mLinkedHashMap.size();
+            if (file != null) {
+                new File(file).delete();
+                new File(file + SIDECAR_SUFFIX).delete();
+            }
         }
     }
 
+    /**
+     * Get the total size of the files in this cache, as recorded when they were put.
+     *
+     * @return size in bytes
+     */
+    public long getCacheByteSize() {
+        return cacheByteSize;
+    }
+
     /**
      * Get an image from the disk cache.
      *
@@ -347,7 +485,13 @@ public class DiskLruCache {
      * Removes all disk cache entries from this instance cache dir
      */
     public void clearCache() {
-        DiskLruCache.clearCache(mCacheDir);
+        synchronized (mLinkedHashMap) {
+            DiskLruCache.clearCache(mCacheDir);
+            mLinkedHashMap.clear();
+            mByteSizes.clear();
+            cacheSize = 0;
+            cacheByteSize = 0;
+        }
     }
 
     /**
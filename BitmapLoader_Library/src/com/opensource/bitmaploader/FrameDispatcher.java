@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.LinkedList;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Delivers the results of the loads to the UI thread in batches, once per frame.<br>
+ * <p>Results are queued and applied at the start of a frame, through {@link Choreographer} on
+ * API 16 and later, or a {@link Handler} at the frame rate before. A frame applies results until
+ * it has used {@link #getFrameBudget()} milliseconds, the rest waits for the next frame, so a
+ * burst of loads finishing together never binds dozens of images in one frame.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class FrameDispatcher {
+    public static final long DEFAULT_FRAME_BUDGET = 4; // ms
+    private static final long FRAME_INTERVAL = 16; // ms, without Choreographer
+
+    private static FrameDispatcher sInstance = null;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Guarded by mQueue
+    private final LinkedList<Runnable> mQueue = new LinkedList<Runnable>();
+    private boolean mScheduled = false;
+    private volatile long mFrameBudget = DEFAULT_FRAME_BUDGET;
+
+    private Object mFrameCallback = null;
+
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            scheduleFrame(false);
+        }
+    };
+
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    private FrameDispatcher() {
+    }
+
+    /**
+     * Get the dispatcher shared by all workers, so that they share the budget of a frame.
+     *
+     * @return the dispatcher
+     */
+    public static synchronized FrameDispatcher getInstance() {
+        if (sInstance == null) {
+            sInstance = new FrameDispatcher();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Get the time a frame may spend on the queued results.
+     *
+     * @return the budget in milliseconds
+     */
+    public long getFrameBudget() {
+        return mFrameBudget;
+    }
+
+    /**
+     * Set the time a frame may spend on the queued results, {@link #DEFAULT_FRAME_BUDGET} by
+     * default. At least one result is applied per frame, however long it takes.
+     *
+     * @param frameBudget The budget in milliseconds
+     */
+    public void setFrameBudget(long frameBudget) {
+        if (frameBudget < 0) {
+            throw new IllegalArgumentException("frameBudget must not be negative");
+        }
+        mFrameBudget = frameBudget;
+    }
+
+    /**
+     * Queue a result to apply on the UI thread at the next frame. May be called from any thread.
+     *
+     * @param r The work which applies the result
+     */
+    public void post(Runnable r) {
+        synchronized (mQueue) {
+            mQueue.offer(r);
+            if (mScheduled) {
+                return;
+            }
+            mScheduled = true;
+        }
+        // Frame callbacks are posted from the UI thread
+        mHandler.post(mScheduleFrame);
+    }
+
+    /**
+     * Get the number of results waiting for a frame.
+     *
+     * @return the number of queued results
+     */
+    public int getPendingCount() {
+        synchronized (mQueue) {
+            return mQueue.size();
+        }
+    }
+
+    /**
+     * Wait for the next frame. Called on the UI thread.
+     *
+     * @param delay Whether to wait a frame interval when there is no Choreographer, false to run
+     *              at the next message
+     */
+    @SuppressLint("NewApi")
+    private void scheduleFrame(boolean delay) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (mFrameCallback == null) {
+                mFrameCallback = new DispatchCallback();
+            }
+            ((DispatchCallback) mFrameCallback).post();
+        } else if (delay) {
+            mHandler.postDelayed(mDispatch, FRAME_INTERVAL);
+        } else {
+            mHandler.post(mDispatch);
+        }
+    }
+
+    /**
+     * Apply queued results until the budget of the frame is used up. Called on the UI thread.
+     */
+    private void dispatch() {
+        final long start = SystemClock.uptimeMillis();
+        final long budget = mFrameBudget;
+        while (true) {
+            final Runnable r;
+            synchronized (mQueue) {
+                r = mQueue.poll();
+                if (r == null) {
+                    mScheduled = false;
+                    return;
+                }
+            }
+            r.run();
+            if (SystemClock.uptimeMillis() - start >= budget) {
+                break;
+            }
+        }
+        synchronized (mQueue) {
+            if (mQueue.isEmpty()) {
+                mScheduled = false;
+                return;
+            }
+        }
+        // Carry the rest over to the next frame
+        scheduleFrame(true);
+    }
+
+    /**
+     * Kept in its own class so that Choreographer is only loaded on API 16 and later.
+     */
+    @SuppressLint("NewApi")
+    private class DispatchCallback implements Choreographer.FrameCallback {
+
+        /**
+         * Call {@link #doFrame(long)} at the next frame.
+         */
+        public void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            dispatch();
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+
+import android.util.Log;
+
+/**
+ * The HTTP caching metadata (validators and freshness) of a file in the http cache.<br>
+ * <p>The metadata is stored in a small properties file next to the cache file, so it is
+ * removed together with the cache file by {@link DiskLruCache#clearCache()}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class HttpCacheEntry {
+    private static final String TAG = "HttpCacheEntry";
+
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+    private static final String KEY_EXPIRES = "expires";
+
+    // Fraction of the Last-Modified age used as heuristic freshness lifetime (RFC 7234, 4.2.2)
+    private static final float HEURISTIC_FRACTION = 0.1f;
+    private static final long MAX_HEURISTIC_LIFETIME = 24 * 60 * 60 * 1000L; // 1 day
+    // Larger delta-seconds are taken as this value (RFC 7234, 1.2.1)
+    private static final long MAX_DELTA_SECONDS = 2147483648L;
+
+    // RFC 1123, RFC 850 and asctime formats of HTTP dates
+    private static final String[] DATE_FORMATS = new String[]{
+            "EEE, dd MMM yyyy HH:mm:ss zzz",
+            "EEEE, dd-MMM-yy HH:mm:ss zzz",
+            "EEE MMM d HH:mm:ss yyyy",
+    };
+
+    /**
+     * Never expires, used when the server sends no freshness information at all.
+     */
+    public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+
+    private String mETag;
+    private String mLastModified;
+    private long mExpires = NEVER_EXPIRES;
+    private boolean mStorable = true; // not stored, only known from a response
+
+    private HttpCacheEntry() {
+    }
+
+    /**
+     * Create a cache entry from the headers of a response.
+     *
+     * @param response The response
+     * @return the cache entry
+     */
+    public static HttpCacheEntry fromResponse(HttpTransport.Response response) {
+        final HttpCacheEntry entry = new HttpCacheEntry();
+        entry.update(response);
+        return entry;
+    }
+
+    /**
+     * Read the cache entry of a cache file.
+     *
+     * @param cacheFile The cache file
+     * @return the cache entry, or null if the file has no metadata
+     */
+    public static HttpCacheEntry read(File cacheFile) {
+        final File metaFile = getMetaFile(cacheFile);
+        if (!metaFile.exists()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(metaFile);
+            final Properties props = new Properties();
+            props.load(in);
+            final HttpCacheEntry entry = new HttpCacheEntry();
+            entry.mETag = props.getProperty(KEY_ETAG);
+            entry.mLastModified = props.getProperty(KEY_LAST_MODIFIED);
+            entry.mExpires = Long.parseLong(props.getProperty(KEY_EXPIRES, String.valueOf(NEVER_EXPIRES)));
+            return entry;
+        } catch (IOException e) {
+            Log.e(TAG, "read - " + e);
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "read - " + e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "read - " + e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Delete the metadata of a cache file.
+     *
+     * @param cacheFile The cache file
+     */
+    public static void delete(File cacheFile) {
+        getMetaFile(cacheFile).delete();
+    }
+
+    /**
+     * Write this entry as the metadata of a cache file.
+     *
+     * @param cacheFile The cache file
+     */
+    public void write(File cacheFile) {
+        final Properties props = new Properties();
+        if (mETag != null) {
+            props.setProperty(KEY_ETAG, mETag);
+        }
+        if (mLastModified != null) {
+            props.setProperty(KEY_LAST_MODIFIED, mLastModified);
+        }
+        props.setProperty(KEY_EXPIRES, String.valueOf(mExpires));
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(getMetaFile(cacheFile));
+            props.store(out, null);
+        } catch (IOException e) {
+            Log.e(TAG, "write - " + e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "write - " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Update this entry with the headers of a new response, for example a 304 (Not Modified)
+     * response of a conditional request. Validators which are not in the response are kept.
+     *
+     * @param response The response
+     */
+    public void update(HttpTransport.Response response) {
+        final String eTag = response.getHeaderField("ETag");
+        if (eTag != null) {
+            mETag = eTag;
+        }
+        final String lastModified = response.getHeaderField("Last-Modified");
+        if (lastModified != null) {
+            mLastModified = lastModified;
+        }
+        mExpires = computeExpires(response);
+        mStorable = isStorable(response);
+    }
+
+    /**
+     * Whether the response this entry was created from may be written to the disk cache, false
+     * for Cache-Control: no-store.
+     *
+     * @return true if the response may be cached
+     */
+    public boolean isStorable() {
+        return mStorable;
+    }
+
+    /**
+     * Whether a response may be written to the disk cache.
+     */
+    static boolean isStorable(HttpTransport.Response response) {
+        final String cacheControl = response.getHeaderField("Cache-Control");
+        if (cacheControl == null) {
+            return true;
+        }
+        for (String directive : cacheControl.split(",")) {
+            if (directive.trim().equalsIgnoreCase("no-store")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the cached file can be used without asking the server.
+     *
+     * @param now Current time in milliseconds
+     * @return true if the entry is still fresh
+     */
+    public boolean isFresh(long now) {
+        return now < mExpires;
+    }
+
+    /**
+     * Whether the entry has validators, so that a conditional request can be made.
+     *
+     * @return true if the entry has a ETag or a Last-Modified
+     */
+    public boolean hasValidators() {
+        return mETag != null || mLastModified != null;
+    }
+
+    /**
+     * Add If-None-Match and If-Modified-Since headers to a request.
+     *
+     * @param headers The headers of the request
+     */
+    public void addConditionalHeaders(Map<String, String> headers) {
+        if (mETag != null) {
+            headers.put("If-None-Match", mETag);
+        }
+        if (mLastModified != null) {
+            headers.put("If-Modified-Since", mLastModified);
+        }
+    }
+
+    /**
+     * Whether a partial download with this entry can be resumed, which needs a strong ETag or a
+     * Last-Modified for the If-Range header.
+     *
+     * @return true if a range request can be made
+     */
+    public boolean canResume() {
+        return isStrongETag() || mLastModified != null;
+    }
+
+    /**
+     * Add If-Range header to a range request, so that the server sends the whole file if it
+     * has changed since the partial download.
+     *
+     * @param headers The headers of the request
+     */
+    public void addIfRangeHeader(Map<String, String> headers) {
+        if (isStrongETag()) {
+            headers.put("If-Range", mETag);
+        } else if (mLastModified != null) {
+            headers.put("If-Range", mLastModified);
+        }
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public long getExpires() {
+        return mExpires;
+    }
+
+    /**
+     * Compute the absolute expiration time of a response, following Cache-Control first, then
+     * Expires, then a heuristic based on Last-Modified.
+     *
+     * @param response The response
+     * @return the expiration time in milliseconds
+     */
+    private static long computeExpires(HttpTransport.Response response) {
+        return computeExpires(response, System.currentTimeMillis());
+    }
+
+    /**
+     * Compute the expiration time of a response received at a time of the local clock.<br>
+     * <p>The server dates only give the freshness lifetime (Expires and Last-Modified are
+     * measured against the Date of the response), which is counted from the local time the
+     * response was received, less its Age, so a skewed clock on either side doesn't shift it.
+     *
+     * @param response The response
+     * @param now      The local time the response was received, in milliseconds
+     * @return the expiration time in milliseconds of the local clock
+     */
+    static long computeExpires(HttpTransport.Response response, long now) {
+        final long age = parseAge(response.getHeaderField("Age"));
+        final long serverDate = parseDate(response.getHeaderField("Date"));
+        final long date = serverDate > 0 ? serverDate : now;
+        final String cacheControl = response.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            long maxAge = -1;
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    // Must revalidate before each use
+                    return 0;
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = parseDeltaSeconds(directive.substring("max-age=".length()).trim());
+                    if (maxAge < 0) {
+                        Log.w(TAG, "Bad Cache-Control directive: " + directive);
+                    }
+                }
+            }
+            if (maxAge >= 0) {
+                return now + maxAge * 1000 - age;
+            }
+        }
+        final String expires = response.getHeaderField("Expires");
+        if (expires != null) {
+            final long expiresDate = parseDate(expires);
+            // An invalid Expires value (like "0") means already expired
+            return expiresDate > date ? now + (expiresDate - date) - age : 0;
+        }
+        final long lastModified = parseDate(response.getHeaderField("Last-Modified"));
+        if (lastModified > 0 && lastModified < date) {
+            return now + Math.min((long) ((date - lastModified) * HEURISTIC_FRACTION), MAX_HEURISTIC_LIFETIME) - age;
+        }
+        return NEVER_EXPIRES;
+    }
+
+    /**
+     * Parse delta-seconds, clamped to {@link #MAX_DELTA_SECONDS} so that they can't overflow
+     * once converted to milliseconds.
+     *
+     * @return the seconds, -1 if the value is invalid
+     */
+    private static long parseDeltaSeconds(String value) {
+        if (value.length() == 0) {
+            return -1;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        // More digits than a long holds is still a valid (huge) value
+        return value.length() > 18 ? MAX_DELTA_SECONDS : Math.min(Long.parseLong(value), MAX_DELTA_SECONDS);
+    }
+
+    /**
+     * Parse the Age header, the time the response has already spent in caches.
+     *
+     * @return the age in milliseconds, 0 if the header is missing or invalid
+     */
+    private static long parseAge(String value) {
+        if (value == null) {
+            return 0;
+        }
+        final long age = parseDeltaSeconds(value.trim());
+        if (age < 0) {
+            Log.w(TAG, "Bad Age header: " + value);
+            return 0;
+        }
+        return age * 1000;
+    }
+
+    private boolean isStrongETag() {
+        // Weak validators are not allowed in If-Range
+        return mETag != null && !mETag.startsWith("W/");
+    }
+
+    /**
+     * Parse a HTTP date.
+     *
+     * @param value The value of a date header
+     * @return the time in milliseconds, -1 if the value is null or invalid
+     */
+    public static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        for (String format : DATE_FORMATS) {
+            final SimpleDateFormat dateFormat = new SimpleDateFormat(format, Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return dateFormat.parse(value.trim()).getTime();
+            } catch (ParseException e) {
+                // Try next format
+            }
+        }
+        return -1;
+    }
+
+    private static File getMetaFile(File cacheFile) {
+        return new File(cacheFile.getPath() + DiskLruCache.SIDECAR_SUFFIX);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a server answers a download with an unexpected status code, like 404 or 503.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int mStatusCode;
+
+    public HttpStatusException(String url, int statusCode) {
+        super("HTTP " + statusCode + " - " + url);
+        mStatusCode = statusCode;
+    }
+
+    /**
+     * Get the status code of the response.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * Whether the status is a client error (4xx).
+     *
+     * @return true for a client error
+     */
+    public boolean isClientError() {
+        return mStatusCode >= 400 && mStatusCode < 500;
+    }
+
+    /**
+     * Whether the status is a server error (5xx).
+     *
+     * @return true for a server error
+     */
+    public boolean isServerError() {
+        return mStatusCode >= 500 && mStatusCode < 600;
+    }
+}
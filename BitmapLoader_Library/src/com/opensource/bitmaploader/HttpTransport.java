@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * The transport used by {@link ImageFetcher} to make HTTP GET requests.<br>
+ * <p>The default one is {@link UrlConnectionTransport}. Set another one with
+ * {@link ImageFetcher#setHttpTransport(HttpTransport)}, for example a client library with its
+ * own connection pool, or an in-process fake which returns canned responses in tests.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public interface HttpTransport {
+
+    /**
+     * Make a GET request. This is called in a background thread.
+     *
+     * @param url     The URL to get
+     * @param headers The request headers
+     * @return The response, which must be closed by the caller
+     * @throws IOException If the request failed
+     */
+    public Response execute(String url, Map<String, String> headers) throws IOException;
+
+    /**
+     * A response of {@link HttpTransport#execute(String, java.util.Map)}.
+     */
+    public interface Response {
+
+        /**
+         * Get the status code of the response, like 200 or 304.
+         *
+         * @return the status code
+         * @throws IOException If the response can't be read
+         */
+        public int getResponseCode() throws IOException;
+
+        /**
+         * Get the value of a response header.
+         *
+         * @param name The name of the header
+         * @return the value, null if the header is not in the response
+         */
+        public String getHeaderField(String name);
+
+        /**
+         * Get the length of the body.
+         *
+         * @return the length in bytes, -1 if unknown
+         */
+        public long getContentLength();
+
+        /**
+         * Get the body of the response.
+         *
+         * @return the body stream
+         * @throws IOException If the body can't be read
+         */
+        public InputStream getInputStream() throws IOException;
+
+        /**
+         * Release the response. The transport may keep the connection for the next request.
+         */
+        public void close();
+
+        /**
+         * Abort the response from another thread, because the download has been cancelled. A
+         * read blocked on the body must fail at once, and the connection is not reused.
+         * {@link #close()} is still called after this.
+         */
+        public void abort();
+    }
+}
@@ -19,6 +19,8 @@
 package com.opensource.bitmaploader;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 import android.content.Context;
 import android.graphics.Bitmap;
@@ -52,6 +54,9 @@ public class ImageCache {
     private static final boolean DEFAULT_MEM_CACHE_ENABLED = true;
     private static final boolean DEFAULT_DISK_CACHE_ENABLED = false;
     private static final boolean DEFAULT_CLEAR_DISK_CACHE_ON_START = false;
+    // One disk cache per directory, caches opened on the same directory share it so that its
+    // files are only counted once, like the http caches of ImageFetcher
+    private static final Map<File, DiskLruCache> sDiskCaches = new HashMap<File, DiskLruCache>();
     private static ImageCacheParams mImageCacheParams = null;
     private DiskLruCache mDiskCache;
     private LruCache<String, Bitmap> mMemoryCache;
@@ -89,12 +94,13 @@ public class ImageCache {
 
         // Set up disk cache
         if (cacheParams.diskCacheEnabled) {
-            mDiskCache = DiskLruCache.openCache(context, diskCacheDir, cacheParams.diskCacheSize);
+            mDiskCache = getDiskCache(context, diskCacheDir, cacheParams.diskCacheSize);
             if(null != mDiskCache) {
                 mDiskCache.setCompressParams(cacheParams.compressFormat, cacheParams.compressQuality);
                 if (cacheParams.clearDiskCacheOnStart) {
                     mDiskCache.clearCache();
                 }
+                DiskCacheBudget.register(mDiskCache, cacheParams.diskCacheWeight);
             } else {
                 Log.e(TAG, "Can't create DiskCache");
                 cacheParams.diskCacheEnabled = false;
@@ -116,6 +122,26 @@ public class ImageCache {
         }
     }
 
+    /**
+     * Get the disk cache of a directory, opening it if it's not opened yet.
+     *
+     * @param context     The context to use
+     * @param cacheDir    The cache directory
+     * @param maxByteSize The max size of the cache if it has to be opened
+     * @return The disk cache, null if it can't be opened
+     */
+    private static DiskLruCache getDiskCache(Context context, File cacheDir, long maxByteSize) {
+        synchronized (sDiskCaches) {
+            DiskLruCache cache = sDiskCaches.get(cacheDir);
+            if (cache == null) {
+                cache = DiskLruCache.openCache(context, cacheDir, maxByteSize);
+                if (cache != null) {
+                    sDiskCaches.put(cacheDir, cache);
+                }
+            }
+            return cache;
+        }
+    }
 
     /**
      * Add a bitmap to cache
@@ -273,6 +299,9 @@ public class ImageCache {
         public boolean memoryCacheEnabled = DEFAULT_MEM_CACHE_ENABLED;
         public boolean diskCacheEnabled = DEFAULT_DISK_CACHE_ENABLED;
         public boolean clearDiskCacheOnStart = DEFAULT_CLEAR_DISK_CACHE_ON_START;
+        // Share of the global disk budget, see DiskCacheBudget
+        public float diskCacheWeight = DiskCacheBudget.DEFAULT_WEIGHT;
+        public float httpCacheWeight = DiskCacheBudget.DEFAULT_WEIGHT;
 
         public ImageCacheParams(String uniqueName) {
             this.uniqueName = uniqueName;
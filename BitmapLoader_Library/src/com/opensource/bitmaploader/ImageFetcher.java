@@ -18,21 +18,37 @@
 
 package com.opensource.bitmaploader;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.Context;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.ImageView;
 
@@ -50,8 +66,55 @@ public class ImageFetcher extends ImageResizer {
     private static final int DEFAULT_BUFF_SIZE = 1024 * 8; //8KB
     private static final int HTTP_CACHE_SIZE = 20 * 1024 * 1024; // 20MB
     private static final int DEFAULT_HTTP_CACHE_ITEM_SIZE = 128;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    public static final int DEFAULT_SMALL_IMAGE_SIZE = 16 * 1024; // 16KB
+
+    // Progressive preview settings
+    private static final int MIN_PREVIEW_FILE_SIZE = 100 * 1024; // 100KB
+    private static final long MIN_PREVIEW_INTERVAL = 500; // ms
+    private static final int PREVIEW_PERCENT_STEP = 10;
+    private static final int PREVIEW_SCALE = 4; // Preview is 1/4 of the target size
     
     private static final Map<String, AssetsRecordData> mAssetsRecords = new HashMap<String, AssetsRecordData>();
+
+    // Downloads and decodes in flight, shared by all fetchers
+    private static final SingleFlight<Download> sDownloadFlights = new SingleFlight<Download>();
+    private static final String SMALL_IMAGE_SUFFIX = ".mem";
+    // Cache-Control: no-store downloads, decoded from outside the cache and deleted after
+    private static final String NO_STORE_SUFFIX = ".nostore";
+    // Writes small images decoded from memory to the http cache
+    private static final ExecutorService sPersistExecutor = Executors.newSingleThreadExecutor();
+    // Queues downloads again when the backoff of their retry is over
+    private static final ScheduledThreadPoolExecutor sRetryExecutor =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "ImageFetcher retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private static final SingleFlight<Bitmap> sDecodeFlights = new SingleFlight<Bitmap>();
+
+    private static final HttpTransport sDefaultHttpTransport = new UrlConnectionTransport();
+
+    private static final NetworkScheduler sDefaultNetworkScheduler = new NetworkScheduler();
+    private static final RetryPolicy sDefaultRetryPolicy = new RetryPolicy();
+    private static final ResponseValidator sDefaultResponseValidator = new ResponseValidator();
+    private static volatile CircuitBreaker sCircuitBreaker = new CircuitBreaker();
+
+    private HttpTransport mHttpTransport = sDefaultHttpTransport;
+    private NetworkScheduler mNetworkScheduler = sDefaultNetworkScheduler;
+    private RetryPolicy mRetryPolicy = sDefaultRetryPolicy;
+    private int mSmallImageSize = DEFAULT_SMALL_IMAGE_SIZE;
+    private ResponseValidator mResponseValidator = sDefaultResponseValidator;
+    private boolean mPersistSmallImages = true;
+    private boolean mProgressivePreview = false;
+
+    // URL rewriters by host
+    private static final Map<String, UrlRewriter> sUrlRewriters = new HashMap<String, UrlRewriter>();
+
+    // One http cache instance per directory, so its size is tracked over all downloads
+    private static final Map<File, DiskLruCache> sHttpCaches = new HashMap<File, DiskLruCache>();
     
     /**
      * Initialize providing a target image width and height for the processing images.
@@ -146,132 +209,840 @@ public class ImageFetcher extends ImageResizer {
     }
     
 
+    /**
+     * Set the transport used to download images, the default one is a shared
+     * {@link UrlConnectionTransport}.
+     *
+     * @param transport The transport, null to use the default one
+     */
+    public void setHttpTransport(HttpTransport transport) {
+        mHttpTransport = transport == null ? sDefaultHttpTransport : transport;
+    }
+
+    /**
+     * Get the transport used to download images.
+     *
+     * @return the transport
+     */
+    public HttpTransport getHttpTransport() {
+        return mHttpTransport;
+    }
+
+    /**
+     * Set the scheduler which runs the downloads, the default one is shared by all fetchers and
+     * allows {@link NetworkScheduler#DEFAULT_MAX_REQUESTS} requests, at most
+     * {@link NetworkScheduler#DEFAULT_MAX_REQUESTS_PER_HOST} of them to one host.
+     *
+     * @param scheduler The scheduler, null to use the default one
+     */
+    public void setNetworkScheduler(NetworkScheduler scheduler) {
+        mNetworkScheduler = scheduler == null ? sDefaultNetworkScheduler : scheduler;
+    }
+
+    /**
+     * Get the scheduler which runs the downloads, for example to read the queue depths per host.
+     *
+     * @return the scheduler
+     */
+    public NetworkScheduler getNetworkScheduler() {
+        return mNetworkScheduler;
+    }
+
+    /**
+     * Set the policy of retrying failed downloads, the default one tries transient failures
+     * {@link RetryPolicy#DEFAULT_MAX_RETRIES} more times with exponential backoff.
+     *
+     * @param policy The policy, null to use the default one, {@link RetryPolicy#NO_RETRY} to
+     *               never retry
+     */
+    public void setRetryPolicy(RetryPolicy policy) {
+        mRetryPolicy = policy == null ? sDefaultRetryPolicy : policy;
+    }
+
+    /**
+     * Get the policy of retrying failed downloads.
+     *
+     * @return the policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    /**
+     * Set the circuit breaker shared by all fetchers, to change how many failures open the circuit
+     * of a host and how soon it is probed.
+     *
+     * @param circuitBreaker The circuit breaker, not null
+     */
+    public static void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        if (circuitBreaker == null) {
+            throw new IllegalArgumentException("Circuit breaker must not be null");
+        }
+        sCircuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Get the circuit breaker shared by all fetchers, for example to find failing hosts.
+     *
+     * @return the circuit breaker
+     */
+    public static CircuitBreaker getCircuitBreaker() {
+        return sCircuitBreaker;
+    }
+
+    /**
+     * Set the validator which checks downloads before they are cached, the default one accepts
+     * images up to {@link ResponseValidator#DEFAULT_MAX_SIZE}.
+     *
+     * @param validator The validator, null to use the default one
+     */
+    public void setResponseValidator(ResponseValidator validator) {
+        mResponseValidator = validator == null ? sDefaultResponseValidator : validator;
+    }
+
+    /**
+     * Set the size under which a downloaded image is decoded from memory instead of being written
+     * to the http cache and decoded from the file. For icons and avatars the round trip through
+     * the disk costs more than the decode.
+     *
+     * @param maxSize The max size in bytes, at most {@link ByteArrayPool#ARRAY_SIZE}, 0 to
+     *                always go through the http cache. Only responses with a Content-Length are
+     *                decoded from memory.
+     */
+    public void setSmallImageSize(int maxSize) {
+        mSmallImageSize = Math.min(Math.max(maxSize, 0), ByteArrayPool.ARRAY_SIZE);
+    }
+
+    /**
+     * Set whether small images decoded from memory are written to the http cache afterwards, in
+     * a background thread. If not, they are downloaded again once the bitmap has left the
+     * memory and disk caches of the {@link ImageCache}.
+     *
+     * @param persist true to write them to the http cache, which is the default
+     */
+    public void setPersistSmallImages(boolean persist) {
+        mPersistSmallImages = persist;
+    }
+
+    /**
+     * Set whether to show low resolution previews while large images are downloading.<br>
+     * <p>When enabled, the part of a large image (at least 100KB) received so far is decoded with
+     * a heavy subsample every few tenths of the download (at most every 500ms) and shown on the
+     * target ImageView until the final bitmap replaces it. Progressive JPEGs give a full but
+     * blurry picture, other images show the top rows which are received.
+     *
+     * @param progressivePreview true to show previews
+     */
+    public void setProgressivePreview(boolean progressivePreview) {
+        mProgressivePreview = progressivePreview;
+    }
+
+    /**
+     * Register a rewriter for the images of a host, so that images are downloaded from the
+     * variant which fits the size of the fetcher loading them.<br>
+     * <p>The memory, disk and http caches are keyed by the rewritten URL, so fetchers of
+     * different sizes keep their own variants.
+     *
+     * @param host     The host of the image URLs, like "images.example.com"
+     * @param rewriter The rewriter, null to remove the rewriter of the host
+     */
+    public static void registerUrlRewriter(String host, UrlRewriter rewriter) {
+        if (host == null) {
+            throw new IllegalArgumentException("Host must not be null");
+        }
+        synchronized (sUrlRewriters) {
+            if (rewriter == null) {
+                sUrlRewriters.remove(host.toLowerCase(Locale.US));
+            } else {
+                sUrlRewriters.put(host.toLowerCase(Locale.US), rewriter);
+            }
+        }
+    }
+
+    /**
+     * Get the URL which is downloaded for an image URL at the size of this fetcher.
+     *
+     * @param url The URL of the image
+     * @return the URL of the variant, the URL itself if no rewriter of its host maps it
+     */
+    public String getVariantUrl(String url) {
+        final UrlRewriter rewriter;
+        synchronized (sUrlRewriters) {
+            if (sUrlRewriters.isEmpty()) {
+                return url;
+            }
+            final String host = Uri.parse(url).getHost();
+            rewriter = host == null ? null : sUrlRewriters.get(host.toLowerCase(Locale.US));
+        }
+        if (rewriter == null) {
+            return url;
+        }
+        final String variant = rewriter.rewrite(url, mImageWidth, mImageHeight);
+        return variant == null ? url : variant;
+    }
+
+    @Override
+    protected String getCacheKey(Object data) {
+        final String dataString = String.valueOf(data);
+        synchronized (mAssetsRecords) {
+            if (mAssetsRecords.containsKey(dataString)) {
+                return dataString;
+            }
+        }
+        return getVariantUrl(dataString);
+    }
+
+    /**
+     * Get the http cache of the current {@link ImageCache}, opening it if needed.
+     *
+     * @param context The context to use
+     * @return the http cache, null if it can't be opened
+     */
+    private DiskLruCache getHttpCache(Context context) {
+        final ImageCache.ImageCacheParams params = null == mImageCache ? null : mImageCache.getImageCacheParams();
+        final File cacheDir = DiskLruCache.getDiskCacheDir(context, params == null ?
+                null : params.cachePath, HTTP_CACHE_DIR);
+        synchronized (sHttpCaches) {
+            DiskLruCache cache = sHttpCaches.get(cacheDir);
+            if (cache == null) {
+                cache = DiskLruCache.openCache(context, cacheDir,
+                        null == params ? HTTP_CACHE_SIZE : params.httpCacheSize);
+                if (cache == null) {
+                    return null;
+                }
+                cache.setMaxCacheItemSize(null == params ? DEFAULT_HTTP_CACHE_ITEM_SIZE : params.httpCacheItemSize);
+                sHttpCaches.put(cacheDir, cache);
+            }
+            // Every time, the params may have a new weight since the cache was opened
+            DiskCacheBudget.register(cache, null == params ? DiskCacheBudget.DEFAULT_WEIGHT : params.httpCacheWeight);
+            return cache;
+        }
+    }
+
     /**
      * Download a bitmap from a URL, write it to a disk and return the File pointer. This
-     * implementation uses a simple disk cache.
+     * implementation uses a simple disk cache.<br>
+     * <p>The ETag, Last-Modified and Cache-Control of the response are stored with the cache file
+     * (see {@link HttpCacheEntry}). A cached file is used while it is fresh, a stale one is
+     * revalidated with a conditional request and reused if the server answers 304.<br>
+     * <p>Transient failures are tried again as the {@link RetryPolicy} says, and a host which
+     * keeps failing is not contacted at all while its {@link CircuitBreaker} is open.
      *
      * @param context   The context to use
      * @param urlString The URL to fetch
      * @return A File pointing to the fetched bitmap
      */
     public File downloadBitmap(Context context, String urlString, LoadListener l) {
+        final Download download = new DownloadRequest(context, urlString, l, false, null).runBlocking();
+        return download == null ? null : download.mmFile;
+    }
 
-        final File cacheDir = DiskLruCache.getDiskCacheDir(context, mImageCache == null ?
-                null : mImageCache.getImageCacheParams().cachePath, HTTP_CACHE_DIR);
+    /**
+     * A download of a URL to the http cache, or to memory if it is small, made of attempts. An
+     * attempt which fails for a transient reason doesn't wait for its retry: it ends with a
+     * retry delay, so that the download gives back its turn of the {@link NetworkScheduler} while
+     * it backs off, and is queued again after the delay (see {@link ScheduledDownload}).
+     * Attempts run one at a time.
+     */
+    private class DownloadRequest implements Callable<Download> {
+        private final Context mmContext;
+        private final String mmUrl;
+        private final LoadListener mmListener;
+        private final boolean mmInMemory;
+        private final CancellationSignal mmSignal;
 
-        final DiskLruCache cache = DiskLruCache.openCache(context, cacheDir,
-                null == mImageCache ? HTTP_CACHE_SIZE : mImageCache.getImageCacheParams().httpCacheSize);
+        // Kept from one attempt to the next
+        private boolean mmStarted = false;
+        private DiskLruCache mmCache;
+        private File mmCacheFile;
+        private HttpCacheEntry mmCacheEntry;
+        private boolean mmStale = false;
+        private boolean mmCacheHit = false;
+        private int mmRetries = 0;
+        private IOException mmError;
+        private long mmRetryDelay = -1;
 
-        cache.setMaxCacheItemSize(null == mImageCache ? DEFAULT_HTTP_CACHE_ITEM_SIZE : mImageCache.getImageCacheParams().httpCacheItemSize);
+        /**
+         * @param context   The context to use
+         * @param urlString The URL to fetch
+         * @param l         The listener to listen bitmap load
+         * @param inMemory  Whether a small image may be kept in memory instead of the http cache
+         * @param signal    Stops the download (and aborts its connection) when cancelled, may be
+         *                  null
+         */
+        public DownloadRequest(Context context, String urlString, LoadListener l, boolean inMemory,
+                               CancellationSignal signal) {
+            mmContext = context;
+            mmUrl = urlString;
+            mmListener = l;
+            mmInMemory = inMemory;
+            mmSignal = signal;
+        }
 
-        final String cacheFilename = cache.createFilePath(urlString);
+        /**
+         * Make the next attempt.
+         *
+         * @return The download, null if it failed, was cancelled or must be tried again, see
+         * {@link #isRetryPending()}
+         */
+        @Override
+        public Download call() {
+            mmRetryDelay = -1;
+            if (!mmStarted) {
+                mmStarted = true;
+                if (!checkCache()) {
+                    return mmCacheHit ? new Download(mmCacheFile) : null;
+                }
+            }
+            if (isCanceled(mmSignal)) {
+                return null;
+            }
+            if (!sCircuitBreaker.allowRequest(mmUrl)) {
+                return fail(new IOException("Host is failing, circuit open - " + mmUrl));
+            }
+            final IOException error;
+            try {
+                final Download download = fetchToCache(mmCache, mmCacheFile, mmCacheEntry, mmUrl,
+                        mmListener, mmInMemory, mmSignal);
+                sCircuitBreaker.onSuccess(mmUrl);
+                return download;
+            } catch (IOException e) {
+                error = e;
+            }
+            if (isCanceled(mmSignal)) {
+                // Aborted by us, not a failure of the host
+                if (ImageWorker.DEBUG) {
+                    Log.d(TAG, "downloadBitmap - cancelled - " + mmUrl);
+                }
+                return null;
+            }
+            Log.e(TAG, "Error in downloadBitmap - " + error);
+            if (!mRetryPolicy.isTransient(error)) {
+                // The host did answer
+                sCircuitBreaker.onSuccess(mmUrl);
+                return fail(error);
+            }
+            sCircuitBreaker.onFailure(mmUrl, mHttpTransport);
+            if (!mRetryPolicy.shouldRetry(error, mmRetries)) {
+                return fail(error);
+            }
+            mmError = error;
+            mmRetryDelay = mRetryPolicy.getDelay(mmRetries);
+            mmRetries++;
+            if (ImageWorker.DEBUG) {
+                Log.d(TAG, "downloadBitmap - retry " + mmRetries + " in " + mmRetryDelay
+                        + "ms - " + mmUrl);
+            }
+            return null;
+        }
 
-        if(null == cacheFilename) {
-            Log.e(TAG, "downloadBitmap - create cache file path failed");
+        /**
+         * Whether the last attempt failed and must be tried again after {@link #mmRetryDelay}.
+         */
+        public boolean isRetryPending() {
+            return mmRetryDelay >= 0;
+        }
+
+        /**
+         * Make the attempts in the current thread, sleeping between them.
+         *
+         * @return The download, null if it failed or was cancelled
+         */
+        public Download runBlocking() {
+            while (true) {
+                final Download download = call();
+                if (!isRetryPending()) {
+                    return download;
+                }
+                try {
+                    if (!sleepUnlessCanceled(mmRetryDelay, mmSignal)) {
+                        return null;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return fail(mmError);
+                }
+            }
+        }
+
+        /**
+         * Look for the URL in the http cache before the first attempt.
+         *
+         * @return true to download, false if the http cache answered: mmCacheHit tells whether
+         * mmCacheFile can be used or the download failed
+         */
+        private boolean checkCache() {
+            mmCache = getHttpCache(mmContext);
+            if (mmCache == null) {
+                Log.e(TAG, "downloadBitmap - open http cache failed");
+                return false;
+            }
+
+            final String cacheFilename = mmCache.createFilePath(mmUrl);
+
+            if(null == cacheFilename) {
+                Log.e(TAG, "downloadBitmap - create cache file path failed");
+                return false;
+            }
+
+            mmCacheFile = new File(cacheFilename);
+
+            if (mmCache.containsKey(mmUrl)) {
+                mmCacheEntry = HttpCacheEntry.read(mmCacheFile);
+                // Files without metadata were cached before validators were stored, they never expire
+                if (mmCacheEntry == null || mmCacheEntry.isFresh(System.currentTimeMillis())) {
+                    if (ImageWorker.DEBUG) {
+                        Log.d(TAG, "downloadBitmap - found in http cache - " + mmUrl);
+                    }
+                    mmCacheHit = true;
+                    return false;
+                }
+                mmStale = true;
+                if (!mmCacheEntry.hasValidators()) {
+                    mmCacheEntry = null;
+                }
+            }
+
+            if (!NetworkMonitor.getInstance(mmContext).isConnected()) {
+                if (mmStale) {
+                    // Offline, a stale file is better than nothing
+                    mmCacheHit = true;
+                    return false;
+                }
+                if (mmListener != null) {
+                    mmListener.onError(mmUrl, "Network connection not found");
+                }
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Give up the download after a failure.
+         *
+         * @return a stale cache file to use instead, null if there is none
+         */
+        private Download fail(IOException error) {
+            if (mmStale && mmCacheFile.exists()) {
+                // The cached file is not touched until a download completes, use the stale one
+                return new Download(mmCacheFile);
+            }
+            if (error instanceof HttpStatusException) {
+                getNegativeCache().put(mmUrl, (HttpStatusException) error);
+            } else if (error instanceof InvalidResponseException) {
+                getNegativeCache().put(mmUrl, NegativeCache.FAILURE_UNDECODABLE);
+            }
+            if (mmListener != null) {
+                mmListener.onError(mmUrl, error);
+            }
             return null;
         }
+    }
 
-        final File cacheFile = new File(cacheFilename);
+    /**
+     * Queues the attempts of a {@link DownloadRequest} in the {@link NetworkScheduler}. An attempt
+     * which asks for a retry has given back its turn, the request is queued again when its
+     * backoff is over.
+     */
+    private class ScheduledDownload implements ResultCallback<Download>, Runnable {
+        private final DownloadRequest mmRequest;
+        private final Callable<Download> mmCallable;
+        private final boolean mmBackground;
+        private final ResultCallback<Download> mmCallback;
 
-        if (cache.containsKey(urlString)) {
-            if (ImageWorker.DEBUG) {
-                Log.d(TAG, "downloadBitmap - found in http cache - " + urlString);
+        public ScheduledDownload(DownloadRequest request, Callable<Download> callable,
+                                 boolean background, ResultCallback<Download> callback) {
+            mmRequest = request;
+            mmCallable = callable;
+            mmBackground = background;
+            mmCallback = callback;
+        }
+
+        public void schedule() {
+            mNetworkScheduler.execute(mmRequest.mmUrl, mmCallable, mmBackground, mmRequest.mmSignal,
+                    this);
+        }
+
+        @Override
+        public void onResult(Download download) {
+            if (download == null && mmRequest.isRetryPending()) {
+                sRetryExecutor.schedule(this, mmRequest.mmRetryDelay, TimeUnit.MILLISECONDS);
+                return;
             }
-            return cacheFile;
+            mmCallback.onResult(download);
         }
 
+        @Override
+        public void onError(Exception error) {
+            mmCallback.onError(error);
+        }
+
+        /**
+         * The backoff is over.
+         */
+        @Override
+        public void run() {
+            if (isCanceled(mmRequest.mmSignal)) {
+                mmCallback.onResult(null);
+                return;
+            }
+            schedule();
+        }
+    }
+
+    private static boolean isCanceled(CancellationSignal signal) {
+        return signal != null && signal.isCanceled();
+    }
+
+    /**
+     * Sleep before a retry, but wake up at once if the signal is cancelled.
+     *
+     * @return false if the signal was cancelled
+     */
+    private static boolean sleepUnlessCanceled(long delay, CancellationSignal signal)
+            throws InterruptedException {
+        if (signal == null) {
+            Thread.sleep(delay);
+            return true;
+        }
+        final Object lock = new Object();
+        final CancellationSignal.OnCancelListener listener = new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+            }
+        };
+        signal.addOnCancelListener(listener);
+        try {
+            final long end = SystemClock.uptimeMillis() + delay;
+            synchronized (lock) {
+                long remaining;
+                while (!signal.isCanceled() && (remaining = end - SystemClock.uptimeMillis()) > 0) {
+                    lock.wait(remaining);
+                }
+            }
+        } finally {
+            signal.removeOnCancelListener(listener);
+        }
+        return !signal.isCanceled();
+    }
+
+    /**
+     * Make one attempt to download (or revalidate) a URL into the http cache.
+     *
+     * @param cache      The http cache
+     * @param cacheFile  The cache file of the URL
+     * @param cacheEntry The validators of the stale cache file to revalidate, null to download
+     * @param urlString  The URL to fetch
+     * @param l          The listener to listen bitmap load
+     * @param inMemory   Whether a small image may be kept in memory instead of the http cache
+     * @param signal     Aborts the connection when cancelled, may be null
+     * @return The download
+     * @throws IOException If the download failed, {@link HttpStatusException} if the server
+     *                     answered with an unexpected status
+     */
+    private Download fetchToCache(DiskLruCache cache, File cacheFile, HttpCacheEntry cacheEntry,
+                                  String urlString, LoadListener l, boolean inMemory,
+                                  CancellationSignal signal) throws IOException {
         if (ImageWorker.DEBUG) {
-            Log.d(TAG, "downloadBitmap - downloading - " + urlString);
+            Log.d(TAG, (cacheEntry == null ? "downloadBitmap - downloading - "
+                    : "downloadBitmap - revalidating - ") + urlString);
         }
 
-        Utils.disableConnectionReuseIfNecessary();
-        HttpURLConnection urlConnection = null;
-        BufferedOutputStream out = null;
+        // Download to a temporary file, so that a partial download is never taken for a cache hit.
+        // A partial file left by a failed download is kept with its validators to be resumed.
+        final File tempFile = new File(cacheFile.getPath() + DiskLruCache.TEMP_SUFFIX);
+        final HttpCacheEntry partialEntry = tempFile.exists() ? HttpCacheEntry.read(tempFile) : null;
+        final long resumeFrom = partialEntry != null && partialEntry.canResume() ? tempFile.length() : 0;
+        boolean resumable = false;
+        HttpTransport.Response response = null;
+        CancellationSignal.OnCancelListener abort = null;
         try {
-            final URL url = new URL(urlString);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setConnectTimeout(10 * 1000);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.setRequestProperty("Accept", "*/*");
-            urlConnection.setRequestProperty("Referer", urlString);
+            final Map<String, String> headers = new HashMap<String, String>();
+            if (cacheEntry != null) {
+                cacheEntry.addConditionalHeaders(headers);
+            }
+            if (resumeFrom > 0) {
+                if (ImageWorker.DEBUG) {
+                    Log.d(TAG, "downloadBitmap - resuming from " + resumeFrom + " - " + urlString);
+                }
+                headers.put("Range", "bytes=" + resumeFrom + "-");
+                partialEntry.addIfRangeHeader(headers);
+            }
+            headers.put("Accept", "*/*");
+            headers.put("Referer", urlString);
             // 设置用户代理
-            urlConnection.setRequestProperty("User-Agent", "Mozilla/4.0 (compatible; "
+            headers.put("User-Agent", "Mozilla/4.0 (compatible; "
                     + "MSIE 8.0; Windows NT 5.2;"
                     + " Trident/4.0; .NET CLR 1.1.4322;"
                     + ".NET CLR 2.0.50727; " + ".NET CLR 3.0.04506.30;"
                     + " .NET CLR 3.0.4506.2152; " + ".NET CLR 3.5.30729)");
-            urlConnection.connect();
-            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                final InputStream in =
-                        new BufferedInputStream(urlConnection.getInputStream(), Utils.IO_BUFFER_SIZE);
-                out = new BufferedOutputStream(new FileOutputStream(cacheFile), Utils.IO_BUFFER_SIZE);
-
-                int b;
-                long total = urlConnection.getContentLength();
-                if (total < 0) {
-                    urlConnection.connect();
-                    total = urlConnection.getContentLength();
-                }
-                long downloaded = 0;
-                if (total < 0) {
-                    byte[] buff = new byte[DEFAULT_BUFF_SIZE];
-                    int count = 0;
-                    while ((count = in.read(buff)) != -1) {
-                        out.write(buff, 0, count);
-                        downloaded += count;
-                        if (l != null) {
-                            l.onProgressUpdate(urlString, total, downloaded);
-                        }
-                    }
-                } else {
-                    long size = total / 100;
-                    if (size > 1) {
-                        byte[] buff = new byte[(int) size];
-                        int count = 0;
-                        while ((count = in.read(buff)) != -1) {
-                            out.write(buff, 0, count);
-                            downloaded += count;
-                            if (l != null) {
-                                l.onProgressUpdate(urlString, total, downloaded);
-                            }
-                        }
-                    } else {
-                        while ((b = in.read()) != -1) {
-                            out.write(b);
-                            downloaded++;
-                            if (l != null) {
-                                l.onProgressUpdate(urlString, total, downloaded);
-                            }
-                        }
+            response = mHttpTransport.execute(urlString, headers);
+            if (signal != null) {
+                // Fails a read blocked on the body at once
+                final HttpTransport.Response abortedResponse = response;
+                abort = new CancellationSignal.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        abortedResponse.abort();
                     }
+                };
+                signal.addOnCancelListener(abort);
+            }
+            final int responseCode = response.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cacheEntry != null) {
+                if (ImageWorker.DEBUG) {
+                    Log.d(TAG, "downloadBitmap - not modified - " + urlString);
                 }
-                return cacheFile;
+                cacheEntry.update(response);
+                cacheEntry.write(cacheFile);
+                cache.put(urlString, cacheFile);
+                return new Download(cacheFile);
+            }
+            if (resumeFrom > 0 && (responseCode == HTTP_RANGE_NOT_SATISFIABLE
+                    || (responseCode == HttpURLConnection.HTTP_PARTIAL
+                    && getContentRangeStart(response) != resumeFrom))) {
+                // The partial file can't be resumed, start again with a full GET
+                deletePartialFile(tempFile);
+                if (abort != null) {
+                    signal.removeOnCancelListener(abort);
+                    abort = null;
+                }
+                response.close();
+                response = null;
+                return fetchToCache(cache, cacheFile, cacheEntry, urlString, l, inMemory, signal);
+            }
+            final boolean partial = responseCode == HttpURLConnection.HTTP_PARTIAL && resumeFrom > 0;
+            if (responseCode != HttpURLConnection.HTTP_OK && !partial) {
+                throw new HttpStatusException(urlString, responseCode);
+            }
+            // A server without range support just sends the whole file with 200
+            final HttpCacheEntry newEntry = HttpCacheEntry.fromResponse(response);
+            final long length = response.getContentLength();
+            // Drop error pages and oversized images before reading them
+            mResponseValidator.checkHeaders(urlString, response.getHeaderField("Content-Type"),
+                    length < 0 ? -1 : (partial ? resumeFrom : 0) + length);
+            if (inMemory && !partial && length > 0 && length <= mSmallImageSize) {
+                // Small enough to decode from memory, skip the file
+                deletePartialFile(tempFile);
+                final byte[] data = readResponseToMemory(response, (int) length, urlString, l, signal);
+                return new Download(data, (int) length, mPersistSmallImages && newEntry.isStorable() ? cache : null,
+                        cacheFile, urlString, newEntry);
+            }
+            resumable = newEntry.isStorable() && newEntry.canResume();
+            if (resumable) {
+                newEntry.write(tempFile);
             } else {
-                return null;
+                HttpCacheEntry.delete(tempFile);
             }
-        } catch (final IOException e) {
-            Log.e(TAG, "Error in downloadBitmap - " + e);
-            FileUtil.deleteFile(cacheFile); //delete file if download failed
-            if (l != null) {
-                l.onError(urlString, e);
+            writeResponseToFile(response, tempFile, partial ? resumeFrom : 0, urlString, l, signal);
+            HttpCacheEntry.delete(tempFile);
+            if (!newEntry.isStorable()) {
+                // Not for the cache, the file lives until the last load decoding it lets go
+                final File noStoreFile = new File(cacheFile.getPath() + NO_STORE_SUFFIX + DiskLruCache.TEMP_SUFFIX);
+                noStoreFile.delete();
+                if (!tempFile.renameTo(noStoreFile)) {
+                    throw new IOException("Can't rename " + tempFile + " to " + noStoreFile);
+                }
+                return new Download(noStoreFile, true);
             }
+            if (!tempFile.renameTo(cacheFile)) {
+                // Some file systems don't replace an existing file
+                cacheFile.delete();
+                if (!tempFile.renameTo(cacheFile)) {
+                    throw new IOException("Can't rename " + tempFile + " to " + cacheFile);
+                }
+            }
+            newEntry.write(cacheFile);
+            cache.put(urlString, cacheFile);
+            return new Download(cacheFile);
+        } catch (IOException e) {
+            if (!resumable || tempFile.length() == 0 || e instanceof InvalidResponseException) {
+                deletePartialFile(tempFile); //delete file if download failed and can't be resumed
+            }
+            throw e;
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (abort != null) {
+                signal.removeOnCancelListener(abort);
             }
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (final IOException e) {
-                    Log.e(TAG, "Error in downloadBitmap - " + e);
-                    if (l != null) {
-                        l.onError(urlString, e);
-                    }
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Get the first byte position of the Content-Range of a 206 (Partial Content) response.
+     *
+     * @param response The response
+     * @return the position, -1 if the header is missing or invalid
+     */
+    private static long getContentRangeStart(HttpTransport.Response response) {
+        // Content-Range: bytes 21010-47021/47022
+        final String range = response.getHeaderField("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) {
+            return -1;
+        }
+        final int dash = range.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Delete a partial download file and its validators.
+     *
+     * @param tempFile The partial file
+     */
+    private static void deletePartialFile(File tempFile) {
+        FileUtil.deleteFile(tempFile);
+        HttpCacheEntry.delete(tempFile);
+    }
+
+    /**
+     * Read the body of a small response into a pooled array.
+     *
+     * @param response  The response
+     * @param length    The length of the body, at most {@link ByteArrayPool#ARRAY_SIZE}
+     * @param urlString The URL, for progress updates
+     * @param l         The listener to listen bitmap load
+     * @param signal    Stops the read when cancelled, may be null
+     * @return The array from {@link ByteArrayPool} holding the body
+     * @throws IOException If the download failed or was cancelled
+     */
+    private byte[] readResponseToMemory(HttpTransport.Response response, int length,
+                                        String urlString, LoadListener l,
+                                        CancellationSignal signal) throws IOException {
+        final ProgressReporter progress = ProgressReporter.create(urlString, l);
+        final byte[] data = ByteArrayPool.acquire();
+        try {
+            final InputStream in = response.getInputStream();
+            int downloaded = 0;
+            while (downloaded < length) {
+                checkCanceled(signal, urlString);
+                final int count = in.read(data, downloaded, length - downloaded);
+                if (count == -1) {
+                    throw new IOException("Unexpected end of stream after " + downloaded + " of "
+                            + length + " bytes - " + urlString);
+                }
+                downloaded += count;
+                if (progress != null) {
+                    progress.update(length, downloaded);
                 }
             }
+            mResponseValidator.checkSignature(urlString, data,
+                    Math.min(length, ResponseValidator.SIGNATURE_SIZE));
+            return data;
+        } catch (IOException e) {
+            ByteArrayPool.release(data);
+            throw e;
         }
+    }
 
-        return null;
+    /**
+     * Throw if the download has been cancelled, checked between the reads of a body.
+     */
+    private static void checkCanceled(CancellationSignal signal, String urlString)
+            throws InterruptedIOException {
+        if (signal != null && signal.isCanceled()) {
+            throw new InterruptedIOException("Download cancelled - " + urlString);
+        }
+    }
+
+    /**
+     * Stream the body of a response to a file through a pooled heap buffer. The file is
+     * allocated to the full length first, and truncated to the received length at the end, or
+     * when the download fails so that it can be resumed.
+     *
+     * @param response  The response
+     * @param file      The file to write to
+     * @param offset    The position in the file of the first byte of the body, not 0 when a
+     *                  partial download is resumed
+     * @param urlString The URL, for progress updates
+     * @param l         The listener to listen bitmap load
+     * @param signal    Stops the download when cancelled, may be null
+     * @return The length of the file
+     * @throws IOException If the download or the write failed, or was cancelled
+     */
+    private long writeResponseToFile(HttpTransport.Response response, File file, long offset,
+                                     String urlString, LoadListener l,
+                                     CancellationSignal signal) throws IOException {
+        final long length = response.getContentLength();
+        final long total = length < 0 ? -1 : offset + length;
+        final ProgressReporter progress = ProgressReporter.create(urlString, l);
+        final PreviewDecoder preview = mProgressivePreview && total >= MIN_PREVIEW_FILE_SIZE
+                && hasPreviewTarget() ? new PreviewDecoder(file, total) : null;
+        // The signature is checked on the first bytes of the image, a resumed one was checked before
+        final byte[] signature = offset == 0 ? new byte[ResponseValidator.SIGNATURE_SIZE] : null;
+        int signatureLength = 0;
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        final ByteBuffer buffer = ByteBufferPool.acquire();
+        long downloaded = offset;
+        try {
+            randomAccessFile.setLength(total > 0 ? total : offset);
+            final FileChannel out = randomAccessFile.getChannel();
+            out.position(offset);
+            // Read straight into the array of the buffer, Channels.newChannel() would read into
+            // an array of its own and copy it into the buffer
+            final InputStream in = response.getInputStream();
+            final byte[] array = buffer.array();
+            final int arrayOffset = buffer.arrayOffset();
+            int count;
+            while ((count = in.read(array, arrayOffset, buffer.capacity())) != -1) {
+                checkCanceled(signal, urlString);
+                mResponseValidator.checkSize(urlString, downloaded + count);
+                if (signature != null && signatureLength < signature.length) {
+                    final int n = Math.min(signature.length - signatureLength, count);
+                    System.arraycopy(array, arrayOffset, signature, signatureLength, n);
+                    signatureLength += n;
+                    if (signatureLength == signature.length) {
+                        mResponseValidator.checkSignature(urlString, signature, signatureLength);
+                    }
+                }
+                buffer.limit(count);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+                downloaded += count;
+                if (progress != null) {
+                    progress.update(total, downloaded);
+                }
+                if (preview != null) {
+                    preview.update(downloaded);
+                }
+            }
+            if (signature != null && signatureLength < signature.length) {
+                mResponseValidator.checkSignature(urlString, signature, signatureLength);
+            }
+            if (downloaded != total) {
+                randomAccessFile.setLength(downloaded);
+                if (total > 0) {
+                    // Cut short, keep it to be resumed but never cache it
+                    throw new IOException("Unexpected end of stream after " + downloaded + " of "
+                            + total + " bytes - " + urlString);
+                }
+            }
+            return downloaded;
+        } catch (IOException e) {
+            // Drop the preallocated tail, keep what has been received
+            try {
+                randomAccessFile.setLength(downloaded);
+            } catch (IOException ignored) {
+                Log.e(TAG, "writeResponseToFile - " + ignored);
+            }
+            throw e;
+        } finally {
+            ByteBufferPool.release(buffer);
+            randomAccessFile.close();
+        }
     }
     
 //    /**
@@ -367,13 +1138,11 @@ public class ImageFetcher extends ImageResizer {
      * @return
      */
     public File copyAssetsBitmap(Context context, String packageName, String name, LoadListener l) {
-    	final File cacheDir = DiskLruCache.getDiskCacheDir(context, mImageCache == null ?
-                null : mImageCache.getImageCacheParams().cachePath, HTTP_CACHE_DIR);
-
-        final DiskLruCache cache = DiskLruCache.openCache(context, cacheDir,
-                null == mImageCache ? HTTP_CACHE_SIZE : mImageCache.getImageCacheParams().httpCacheSize);
-
-        cache.setMaxCacheItemSize(null == mImageCache ? DEFAULT_HTTP_CACHE_ITEM_SIZE : mImageCache.getImageCacheParams().httpCacheItemSize);
+        final DiskLruCache cache = getHttpCache(context);
+        if (cache == null) {
+            Log.e(TAG, "copyAssetsBitmap - open http cache failed");
+            return null;
+        }
 
         final String cacheFilename = cache.createFilePath(name);
 
@@ -405,6 +1174,7 @@ public class ImageFetcher extends ImageResizer {
         		inStream = outContext.getResources().getAssets().open(name);
         	}
         	int total = inStream.available();
+        	final ProgressReporter progress = ProgressReporter.create(name, l);
         	outStream = new FileOutputStream(cacheFile);
             byte [] buffer = new byte[DEFAULT_BUFF_SIZE];
             int size;
@@ -412,11 +1182,12 @@ public class ImageFetcher extends ImageResizer {
             while((size = inStream.read(buffer)) != -1) {
             	outStream.write(buffer, 0, size);
             	downloadedSize += size;
-            	if (l != null) {
-                    l.onProgressUpdate(name, total, downloadedSize);
-                }
+            	if (progress != null) {
+            		progress.update(total, downloadedSize);
+            	}
             }
             outStream.flush();
+            cache.put(name, cacheFile);
             return cacheFile;
         } catch (NameNotFoundException e) {
         	if (ImageWorker.DEBUG) {
@@ -454,33 +1225,288 @@ public class ImageFetcher extends ImageResizer {
     }
     
     /**
-     * The main process method, which will be called by the ImageWorker in the AsyncTask background
-     * thread.
+     * The main process method, which will be called by the ImageWorker in a background thread,
+     * the decode stage of {@link LoadExecutor} for the loads whose source is already local.<br>
+     * <p>Requests of the same URL, size and config which are processed at the same time share
+     * one download and one decode, see {@link SingleFlight}. The URL is first mapped to its
+     * variant by the {@link UrlRewriter} of its host, if any.
      *
      * @param data The data to load the bitmap, in this case, a regular http URL
      * @return The downloaded and resized bitmap
      */
-    private Bitmap processBitmap(String data, Bitmap.Config config, LoadListener l) {
+    private Bitmap processBitmap(final String data, final Bitmap.Config config, final LoadListener l) {
+        final String url = getVariantUrl(data);
+        final String key = url + "#" + mImageWidth + "x" + mImageHeight + "#" + config;
+        try {
+            return sDecodeFlights.execute(key, getCancellationSignal(), new SingleFlight.Work<Bitmap>() {
+                @Override
+                public Bitmap call(CancellationSignal signal) throws Exception {
+                    return processBitmapInFlight(url, config, l, signal);
+                }
+            });
+        } catch (CancellationException e) {
+            if (ImageWorker.DEBUG) {
+                Log.d(TAG, "processBitmap - cancelled - " + data);
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "processBitmap - interrupted while waiting for " + data);
+        } catch (ExecutionException e) {
+            Log.e(TAG, "processBitmap - " + e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Download (or join the download of the same URL in flight) and decode a bitmap.<br>
+     * <p>The http cache is checked first: a fresh file is decoded without waiting for the
+     * network, and when offline any cached file is used, however stale. Only images which are
+     * not cached at all fail when offline.
+     *
+     * @param data The URL of the bitmap
+     * @param config The config of bitmap
+     * @param l The listener to listen bitmap load
+     * @param signal Cancelled when every request waiting for the bitmap has been cancelled
+     * @return The downloaded and resized bitmap
+     */
+    private Bitmap processBitmapInFlight(final String data, Bitmap.Config config, final LoadListener l,
+                                         CancellationSignal signal) {
         if (ImageWorker.DEBUG) {
             Log.d(TAG, "processBitmap - " + data);
         }
 
-        if (Utils.isNetworkConnected(mContext)) {
-            // Download a bitmap, write it to a file
-            final File f = downloadBitmap(mContext, data, l);
-
-            if (f != null) {
-                // Return a sampled down version
-                return decodeSampledBitmapFromFile(f.toString(), mImageWidth, mImageHeight, config);
-            }
-        } else {
+        final boolean connected = NetworkMonitor.getInstance(mContext).isConnected();
+        final File cachedFile = getCachedFile(data, !connected);
+        if (cachedFile != null) {
+            return decodeDownload(new Download(cachedFile), data, config, l, signal);
+        }
+        if (!connected) {
             if (l != null) {
                 l.onError(data, "Network connection not found");
             }
+            return null;
+        }
+
+        final Download download = fetchDownload(data, l, false, signal);
+        if (download != null) {
+            return decodeDownload(download, data, config, l, signal);
         }
         return null;
     }
-    
+
+    /**
+     * Download a bitmap (or join the download of the same URL in flight), to a file or to
+     * memory if it is small.
+     *
+     * @param url        The URL of the bitmap
+     * @param l          The listener to listen bitmap load
+     * @param background Whether this is a prefetch, which runs only when no visible image waits
+     *                   for the network and is always written to a file
+     * @param signal     The cancellation signal of the request, the download is aborted when the
+     *                   signals of all the requests waiting for it are cancelled. May be null.
+     * @return the download, null if it failed or was cancelled
+     */
+    private Download fetchDownload(final String url, final LoadListener l, final boolean background,
+                                   CancellationSignal signal) {
+        if (!background) {
+            // A prefetch of the URL may be waiting in the background queue, it is needed now
+            mNetworkScheduler.prioritize(url);
+        }
+        try {
+            return sDownloadFlights.execute(url, signal, newDownloadWork(url, l, background));
+        } catch (CancellationException e) {
+            if (ImageWorker.DEBUG) {
+                Log.d(TAG, "fetchDownload - cancelled - " + url);
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "fetchDownload - interrupted while waiting for " + url);
+        } catch (ExecutionException e) {
+            // A download dropped from the queue because every request was cancelled is no error
+            if (!isCanceled(signal)) {
+                Log.e(TAG, "fetchDownload - " + e.getCause());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected boolean needsSource(Object data) {
+        final String dataString = String.valueOf(data);
+        synchronized (mAssetsRecords) {
+            if (mAssetsRecords.containsKey(dataString)) {
+                return false;
+            }
+        }
+        // Cached files are decoded at once, and offline the decode stage fails (or uses a stale
+        // file) without the network
+        return NetworkMonitor.getInstance(mContext).isConnected()
+                && getCachedFile(getVariantUrl(dataString), false) == null;
+    }
+
+    /**
+     * Get the work of a download which waits for a turn of its host in the
+     * {@link NetworkScheduler}, and hands the download to its callback from the network thread.
+     */
+    private SingleFlight.AsyncWork<Download> newDownloadWork(final String url, final LoadListener l,
+                                                              final boolean background) {
+        return new SingleFlight.AsyncWork<Download>() {
+            @Override
+            public void start(CancellationSignal flightSignal, ResultCallback<Download> callback) {
+                final DownloadRequest request = new DownloadRequest(mContext, url, l, !background,
+                        flightSignal);
+                new ScheduledDownload(request, bindToCurrentWork(request), background, callback)
+                        .schedule();
+            }
+        };
+    }
+
+    @Override
+    protected void loadSource(Object data, LoadListener l, ResultCallback<Object> callback) {
+        final String url = getVariantUrl(String.valueOf(data));
+        // A prefetch of the URL may be waiting in the background queue, it is needed now
+        mNetworkScheduler.prioritize(url);
+        sDownloadFlights.executeAsync(url, getCancellationSignal(), newDownloadWork(url, l, false),
+                callback);
+    }
+
+    @Override
+    protected Bitmap decodeSource(Object data, Object source, final Bitmap.Config config, final LoadListener l) {
+        if (!(source instanceof Download)) {
+            return processBitmap(data, config, l);
+        }
+        final Download download = (Download) source;
+        final String url = getVariantUrl(String.valueOf(data));
+        final String key = url + "#" + mImageWidth + "x" + mImageHeight + "#" + config;
+        final boolean[] decoded = new boolean[] {false};
+        try {
+            return sDecodeFlights.execute(key, getCancellationSignal(), new SingleFlight.Work<Bitmap>() {
+                @Override
+                public Bitmap call(CancellationSignal signal) throws Exception {
+                    decoded[0] = true;
+                    return decodeDownload(download, url, config, l, signal);
+                }
+            });
+        } catch (CancellationException e) {
+            if (ImageWorker.DEBUG) {
+                Log.d(TAG, "decodeSource - cancelled - " + url);
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "decodeSource - interrupted while waiting for " + url);
+        } catch (ExecutionException e) {
+            Log.e(TAG, "decodeSource - " + e.getCause());
+        } finally {
+            if (!decoded[0]) {
+                // Joined the decode of another load, which has its own share of the download
+                download.release();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void releaseSource(Object source) {
+        if (source instanceof Download) {
+            ((Download) source).release();
+        }
+    }
+
+    @Override
+    protected long fetchSource(Object data) {
+        final String url = getVariantUrl(String.valueOf(data));
+        final boolean connected = NetworkMonitor.getInstance(mContext).isConnected();
+        if (getCachedFile(url, !connected) != null) {
+            return 0;
+        }
+        if (!connected) {
+            return -1;
+        }
+        final Download download = fetchDownload(url, null, true, getCancellationSignal());
+        if (download == null) {
+            return -1;
+        }
+        final long length = download.mmFile == null ? download.mmLength : download.mmFile.length();
+        download.release();
+        return length;
+    }
+
+    /**
+     * Get the file of a URL in the http cache.
+     *
+     * @param urlString  The URL
+     * @param allowStale Whether to return a file which should be revalidated
+     * @return the cache file, null if the URL is not cached (or only a stale file is)
+     */
+    private File getCachedFile(String urlString, boolean allowStale) {
+        final DiskLruCache cache = getHttpCache(mContext);
+        if (cache == null || !cache.containsKey(urlString)) {
+            return null;
+        }
+        final String cacheFilename = cache.createFilePath(urlString);
+        if (cacheFilename == null) {
+            return null;
+        }
+        final File cacheFile = new File(cacheFilename);
+        if (allowStale) {
+            return cacheFile;
+        }
+        // Files without metadata were cached before validators were stored, they never expire
+        final HttpCacheEntry cacheEntry = HttpCacheEntry.read(cacheFile);
+        return cacheEntry == null || cacheEntry.isFresh(System.currentTimeMillis()) ? cacheFile : null;
+    }
+
+    /**
+     * Decode a sampled down version of a download, and release the download.<br>
+     * <p>Only an image which is there and fails to decode is put in the negative cache. A cache
+     * file which is gone or empty (evicted or cut short after the download) is dropped from the
+     * http cache and downloaded again, once.
+     *
+     * @param download The download
+     * @param data     The URL of the bitmap
+     * @param config   The config of bitmap
+     * @param l        The listener to listen bitmap load
+     * @param signal   Stops the decode when cancelled, may be null
+     * @return The resized bitmap, null if it failed or was cancelled
+     */
+    private Bitmap decodeDownload(Download download, String data, Bitmap.Config config, LoadListener l,
+                                  CancellationSignal signal) {
+        return decodeDownload(download, data, config, l, signal, true);
+    }
+
+    private Bitmap decodeDownload(Download download, String data, Bitmap.Config config, LoadListener l,
+                                  CancellationSignal signal, boolean retry) {
+        final Bitmap bitmap;
+        try {
+            bitmap = download.mmFile != null
+                    ? decodeSampledBitmapFromFile(download.mmFile.toString(), mImageWidth, mImageHeight,
+                    config, signal)
+                    : decodeSampledBitmapFromByteArray(download.mmData, 0, download.mmLength,
+                    mImageWidth, mImageHeight, config, signal);
+        } finally {
+            download.release();
+        }
+        if (bitmap != null || isCanceled(signal)) {
+            return bitmap;
+        }
+        if (download.mmFile != null && !download.mmUncached
+                && (!download.mmFile.exists() || download.mmFile.length() == 0)) {
+            // Nothing to decode, which says nothing about the image
+            Log.w(TAG, "decodeDownload - cache file missing or empty - " + data);
+            final DiskLruCache cache = getHttpCache(mContext);
+            if (cache != null) {
+                cache.remove(data);
+            }
+            if (retry) {
+                final Download again = fetchDownload(data, l, false, signal);
+                return again == null ? null : decodeDownload(again, data, config, l, signal, false);
+            }
+        } else {
+            getNegativeCache().put(data, NegativeCache.FAILURE_UNDECODABLE);
+        }
+        if (l != null) {
+            l.onError(data, "Bitmap decode failed");
+        }
+        return null;
+    }
+
     /**
      * Process bitmap from assets file
      * @param packageName
@@ -499,7 +1525,8 @@ public class ImageFetcher extends ImageResizer {
     		
     		if (f != null) {
     			// Return a sampled down version
-    			return decodeSampledBitmapFromFile(f.toString(), mImageWidth, mImageHeight, config);
+    			return decodeSampledBitmapFromFile(f.toString(), mImageWidth, mImageHeight, config,
+    					getCancellationSignal());
     		}
     	} catch (Exception e) {
     		Log.e(TAG, "Load bitmap from assets failed--" + data);
@@ -528,6 +1555,254 @@ public class ImageFetcher extends ImageResizer {
     	return processBitmapFromAssets(recordData.packageName, dataString, config, l);
     }
     
+    /**
+     * The result of a download, either a file in the http cache or a small image in a pooled
+     * array. The array goes back to the pool (after being written to the http cache if asked)
+     * when every request sharing the download has released it.
+     */
+    private static class Download implements SingleFlight.Shared {
+        private final File mmFile;
+        // Whether mmFile is outside the http cache, deleted on the last release
+        private final boolean mmUncached;
+        private final byte[] mmData;
+        private final int mmLength;
+
+        // To write a memory download to the http cache, mmCache is null if it is not written
+        private final DiskLruCache mmCache;
+        private final File mmCacheFile;
+        private final String mmUrl;
+        private final HttpCacheEntry mmEntry;
+
+        private final AtomicInteger mmRefs = new AtomicInteger(0);
+
+        public Download(File file) {
+            this(file, false);
+        }
+
+        public Download(File file, boolean uncached) {
+            this(file, uncached, null, 0, null, null, null, null);
+        }
+
+        public Download(byte[] data, int length, DiskLruCache cache, File cacheFile, String url,
+                        HttpCacheEntry entry) {
+            this(null, false, data, length, cache, cacheFile, url, entry);
+        }
+
+        private Download(File file, boolean uncached, byte[] data, int length, DiskLruCache cache,
+                         File cacheFile, String url, HttpCacheEntry entry) {
+            mmFile = file;
+            mmUncached = uncached;
+            mmData = data;
+            mmLength = length;
+            mmCache = cache;
+            mmCacheFile = cacheFile;
+            mmUrl = url;
+            mmEntry = entry;
+        }
+
+        @Override
+        public void setShareCount(int count) {
+            // Releases may come before the count, the last one of all brings it to 0
+            if ((mmData != null || mmUncached) && mmRefs.addAndGet(count) == 0) {
+                recycle();
+            }
+        }
+
+        @Override
+        public void release() {
+            if ((mmData != null || mmUncached) && mmRefs.decrementAndGet() == 0) {
+                recycle();
+            }
+        }
+
+        private void recycle() {
+            if (mmUncached) {
+                mmFile.delete();
+                return;
+            }
+            if (mmCache == null) {
+                ByteArrayPool.release(mmData);
+                return;
+            }
+            sPersistExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        persist();
+                    } finally {
+                        ByteArrayPool.release(mmData);
+                    }
+                }
+            });
+        }
+
+        private void persist() {
+            // Not the temp file of file downloads, which may be writing the same URL
+            final File tempFile = new File(mmCacheFile.getPath() + SMALL_IMAGE_SUFFIX + DiskLruCache.TEMP_SUFFIX);
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(tempFile);
+                out.write(mmData, 0, mmLength);
+                out.close();
+                out = null;
+                if (!tempFile.renameTo(mmCacheFile)) {
+                    mmCacheFile.delete();
+                    if (!tempFile.renameTo(mmCacheFile)) {
+                        throw new IOException("Can't rename " + tempFile + " to " + mmCacheFile);
+                    }
+                }
+                mmEntry.write(mmCacheFile);
+                mmCache.put(mmUrl, mmCacheFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Persist small image failed - " + e);
+                FileUtil.deleteFile(tempFile);
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Persist small image failed - " + e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes previews of a file being downloaded, at a bounded rate.
+     */
+    private class PreviewDecoder {
+        private final File mmFile;
+        private final long mmTotal;
+        private final BitmapFactory.Options mmOptions = new BitmapFactory.Options();
+        private long mmLastTime = SystemClock.uptimeMillis();
+        private long mmLastDownloaded = 0;
+
+        public PreviewDecoder(File file, long total) {
+            mmFile = file;
+            mmTotal = total;
+            mmOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
+
+        public void update(long downloaded) {
+            if (downloaded >= mmTotal) {
+                // The final decode replaces the preview
+                return;
+            }
+            final long now = SystemClock.uptimeMillis();
+            if (now - mmLastTime < MIN_PREVIEW_INTERVAL
+                    || downloaded - mmLastDownloaded < mmTotal * PREVIEW_PERCENT_STEP / 100) {
+                return;
+            }
+            if (!hasPreviewTarget()) {
+                return;
+            }
+            mmLastDownloaded = downloaded;
+            final Bitmap preview = decode(downloaded);
+            // Measure after the decode, so slow decodes space the previews out
+            mmLastTime = SystemClock.uptimeMillis();
+            if (preview != null) {
+                publishPreview(preview);
+            }
+        }
+
+        private Bitmap decode(long length) {
+            InputStream in = null;
+            try {
+                if (mmOptions.outWidth <= 0) {
+                    in = new LimitedInputStream(new FileInputStream(mmFile), length);
+                    mmOptions.inJustDecodeBounds = true;
+                    BitmapFactory.decodeStream(in, null, mmOptions);
+                    in.close();
+                    if (mmOptions.outWidth <= 0) {
+                        // Header not received yet
+                        return null;
+                    }
+                    mmOptions.inSampleSize = calculateInSampleSize(mmOptions,
+                            Math.max(mImageWidth / PREVIEW_SCALE, 1), Math.max(mImageHeight / PREVIEW_SCALE, 1));
+                    mmOptions.inJustDecodeBounds = false;
+                }
+                if (!tryAcquireDecode()) {
+                    // A preview is not worth waiting for, the next one may get a permit
+                    return null;
+                }
+                try {
+                    in = new LimitedInputStream(new FileInputStream(mmFile), length);
+                    return BitmapFactory.decodeStream(in, null, mmOptions);
+                } finally {
+                    releaseDecode();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "PreviewDecoder - " + e);
+            } catch (OutOfMemoryError e) {
+                Log.w(TAG, "PreviewDecoder - " + e);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        Log.w(TAG, "PreviewDecoder - " + e);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An InputStream which ends after a number of bytes, used to decode the received part of a
+     * preallocated file.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long mmRemaining;
+
+        public LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            mmRemaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mmRemaining <= 0) {
+                return -1;
+            }
+            final int b = super.read();
+            if (b != -1) {
+                mmRemaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (mmRemaining <= 0) {
+                return -1;
+            }
+            final int read = super.read(buffer, offset, (int) Math.min(count, mmRemaining));
+            if (read > 0) {
+                mmRemaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            final long skipped = super.skip(Math.min(byteCount, mmRemaining));
+            mmRemaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), mmRemaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
     private static class AssetsRecordData {
     	public String packageName;
     	public int count = 0;
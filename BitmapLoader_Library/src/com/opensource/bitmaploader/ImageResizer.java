@@ -24,6 +24,7 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Log;
 
+import java.util.concurrent.Semaphore;
 
 /**
  * A simple subclass of {@link com.opensource.bitmaploader.ImageWorker} that resizes images from resources given a target width
@@ -37,6 +38,10 @@ import android.util.Log;
 public class ImageResizer extends ImageWorker {
     private static final String TAG = "ImageWorker";
 
+    // Bounds the decodes running at once wherever they run: the decode pool, the prefetch lane,
+    // the previews on the network threads and getImageBitmap on the caller thread
+    private static final Semaphore sDecodePermits = new Semaphore(LoadExecutor.DECODE_POOL_SIZE);
+
     protected int mImageWidth = 0;
     protected int mImageHeight = 0;
 
@@ -90,7 +95,12 @@ public class ImageResizer extends ImageWorker {
 
         // Decode bitmap with inSampleSize set
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeResource(res, resId, options);
+        acquireDecode();
+        try {
+            return BitmapFactory.decodeResource(res, resId, options);
+        } finally {
+            releaseDecode();
+        }
     }
 
     /**
@@ -103,8 +113,25 @@ public class ImageResizer extends ImageWorker {
      * @return A bitmap sampled down from the original with the same aspect ratio and dimensions
      * that are equal to or greater than the requested width and height
      */
-    public static synchronized Bitmap decodeSampledBitmapFromFile(String filename,
-                                                                  int reqWidth, int reqHeight, Bitmap.Config config) {
+    public static Bitmap decodeSampledBitmapFromFile(String filename,
+                                                     int reqWidth, int reqHeight, Bitmap.Config config) {
+        return decodeSampledBitmapFromFile(filename, reqWidth, reqHeight, config, null);
+    }
+
+    /**
+     * Decode and sample down a bitmap from a file to the requested width and height, and stop
+     * the decode if the signal is cancelled.
+     *
+     * @param filename  The full path of the file to decode
+     * @param reqWidth  The requested width of the resulting bitmap
+     * @param reqHeight The requested height of the resulting bitmap
+     * @param config    The config of bitmap
+     * @param signal    The cancellation signal, may be null
+     * @return A bitmap sampled down from the original with the same aspect ratio and dimensions
+     * that are equal to or greater than the requested width and height, null if cancelled
+     */
+    public static Bitmap decodeSampledBitmapFromFile(String filename, int reqWidth, int reqHeight,
+                                                     Bitmap.Config config, CancellationSignal signal) {
 
         // First decode with inJustDecodeBounds=true to check dimensions
         final BitmapFactory.Options options = new BitmapFactory.Options();
@@ -119,7 +146,130 @@ public class ImageResizer extends ImageWorker {
 
         // Decode bitmap with inSampleSize set
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFile(filename, options);
+        final CancellationSignal.OnCancelListener listener = watchDecode(options, signal);
+        if (listener == null && signal != null) {
+            return null;
+        }
+        acquireDecode();
+        try {
+            return BitmapFactory.decodeFile(filename, options);
+        } finally {
+            releaseDecode();
+            if (listener != null) {
+                signal.removeOnCancelListener(listener);
+            }
+        }
+    }
+
+    /**
+     * Decode and sample down a bitmap from a byte array to the requested width and height.
+     *
+     * @param data      The array holding the encoded image
+     * @param offset    The offset of the image in the array
+     * @param length    The length of the image
+     * @param reqWidth  The requested width of the resulting bitmap
+     * @param reqHeight The requested height of the resulting bitmap
+     * @param config    The config of bitmap
+     * @return A bitmap sampled down from the original with the same aspect ratio and dimensions
+     * that are equal to or greater than the requested width and height
+     */
+    public static Bitmap decodeSampledBitmapFromByteArray(byte[] data, int offset, int length,
+                                                          int reqWidth, int reqHeight, Bitmap.Config config) {
+        return decodeSampledBitmapFromByteArray(data, offset, length, reqWidth, reqHeight, config, null);
+    }
+
+    /**
+     * Decode and sample down a bitmap from a byte array to the requested width and height, and
+     * stop the decode if the signal is cancelled.
+     *
+     * @param data      The array holding the encoded image
+     * @param offset    The offset of the image in the array
+     * @param length    The length of the image
+     * @param reqWidth  The requested width of the resulting bitmap
+     * @param reqHeight The requested height of the resulting bitmap
+     * @param config    The config of bitmap
+     * @param signal    The cancellation signal, may be null
+     * @return A bitmap sampled down from the original with the same aspect ratio and dimensions
+     * that are equal to or greater than the requested width and height, null if cancelled
+     */
+    public static Bitmap decodeSampledBitmapFromByteArray(byte[] data, int offset, int length,
+                                                          int reqWidth, int reqHeight, Bitmap.Config config,
+                                                          CancellationSignal signal) {
+
+        // First decode with inJustDecodeBounds=true to check dimensions
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, offset, length, options);
+
+        // Calculate inSampleSize
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        if (config != null) {
+            options.inPreferredConfig = config;
+        }
+
+        // Decode bitmap with inSampleSize set
+        options.inJustDecodeBounds = false;
+        final CancellationSignal.OnCancelListener listener = watchDecode(options, signal);
+        if (listener == null && signal != null) {
+            return null;
+        }
+        acquireDecode();
+        try {
+            return BitmapFactory.decodeByteArray(data, offset, length, options);
+        } finally {
+            releaseDecode();
+            if (listener != null) {
+                signal.removeOnCancelListener(listener);
+            }
+        }
+    }
+
+    /**
+     * Wait for a decode permit, there are {@link LoadExecutor#DECODE_POOL_SIZE}. Only the decode
+     * of the pixels takes one, reading the bounds is cheap.
+     */
+    static void acquireDecode() {
+        sDecodePermits.acquireUninterruptibly();
+    }
+
+    /**
+     * Take a decode permit if one is free, for a decode which can be skipped.
+     *
+     * @return true if taken, then call {@link #releaseDecode()} after the decode
+     */
+    static boolean tryAcquireDecode() {
+        return sDecodePermits.tryAcquire();
+    }
+
+    /**
+     * Give back a decode permit.
+     */
+    static void releaseDecode() {
+        sDecodePermits.release();
+    }
+
+    /**
+     * Make a cancellation signal stop a decode with
+     * {@link android.graphics.BitmapFactory.Options#requestCancelDecode()}.
+     *
+     * @param options The options of the decode
+     * @param signal  The signal, may be null
+     * @return the listener to remove from the signal after the decode, null if there is no
+     * signal or it is already cancelled
+     */
+    private static CancellationSignal.OnCancelListener watchDecode(final BitmapFactory.Options options,
+                                                                   CancellationSignal signal) {
+        if (signal == null || signal.isCanceled()) {
+            return null;
+        }
+        final CancellationSignal.OnCancelListener listener = new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                options.requestCancelDecode();
+            }
+        };
+        signal.addOnCancelListener(listener);
+        return listener;
     }
 
     /**
@@ -251,7 +401,7 @@ public class ImageResizer extends ImageWorker {
         if (data == null || data.length() < 1) {
             return null;
         }
-        return decodeSampledBitmapFromFile(data, mImageWidth, mImageHeight, config);
+        return decodeSampledBitmapFromFile(data, mImageWidth, mImageHeight, config, getCancellationSignal());
     }
 
     @Override
@@ -20,19 +20,28 @@ package com.opensource.bitmaploader;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.PixelFormat;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.ImageView;
 
@@ -49,6 +58,11 @@ public abstract class ImageWorker {
     public static boolean DEBUG = false;
     private static final String TAG = "ImageWorker";
     private static final int FADE_IN_TIME = 200;
+    private static final int MAX_DRAWABLE_POOL_SIZE = 16;
+
+    // The stages of a load, see BitmapWorkerTask
+    private static final int STAGE_DISK = 0;
+    private static final int STAGE_DECODE = 1;
     protected static ImageCache mImageCache = null;
 
     protected Context mContext;
@@ -58,10 +72,34 @@ public abstract class ImageWorker {
     private Bitmap mLoadFailedBitmap = null;
     private boolean mFadeInBitmap = false;
     private boolean mExitTasksEarly = false;
+    private volatile boolean mPauseWork = false;
+    private final Object mPauseWorkLock = new Object();
+    // Loads held aside while the work is paused, guarded by mPauseWorkLock
+    private final ArrayList<BitmapWorkerTask> mPausedTasks = new ArrayList<BitmapWorkerTask>();
     protected Bitmap.Config mDefaultBitmapConfig = Bitmap.Config.ARGB_8888;
+    private Priority mPriority = Priority.VISIBLE;
+    // Loads in flight by data and config, for other ImageViews to join them
+    private final HashMap<String, BitmapWorkerTask> mInFlightTasks = new HashMap<String, BitmapWorkerTask>();
 
     private Handler mHandler = new Handler();
 
+    // Drawables of the loading bitmap given back by the ImageViews, guarded by mDrawablePoolLock
+    private final Object mDrawablePoolLock = new Object();
+    // Stacks, so that giving a drawable back allocates nothing
+    private final AsyncDrawable[] mAsyncDrawablePool = new AsyncDrawable[MAX_DRAWABLE_POOL_SIZE];
+    private int mAsyncDrawablePoolSize = 0;
+    private final BitmapDrawable[] mBackgroundPool = new BitmapDrawable[MAX_DRAWABLE_POOL_SIZE];
+    private int mBackgroundPoolSize = 0;
+    private int mDrawableAllocations = 0;
+    private int mDrawableReuses = 0;
+
+    // Requests which failed recently
+    private static final NegativeCache sNegativeCache = new NegativeCache();
+
+    // The task running in the current background thread, and the signal of its cancellation
+    private static final ThreadLocal<BitmapWorkerTask> sCurrentTask = new ThreadLocal<BitmapWorkerTask>();
+    private static final ThreadLocal<CancellationSignal> sCurrentSignal = new ThreadLocal<CancellationSignal>();
+
     protected ImageWorker(Context context) {
         mContext = context;
     }
@@ -77,35 +115,53 @@ public abstract class ImageWorker {
     }
 
 
+    /**
+     * Detach the ImageView from its work in progress. The work is cancelled if no other
+     * ImageView waits for it.
+     *
+     * @param imageView Any imageView
+     */
     public static void cancelWork(ImageView imageView) {
         final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
         if (bitmapWorkerTask != null) {
-            bitmapWorkerTask.cancel(true);
+            bitmapWorkerTask.detach(imageView);
             if (ImageWorker.DEBUG) {
                 final Object bitmapData = bitmapWorkerTask.mmData;
-                Log.d(TAG, "cancelWork - cancelled work for " + bitmapData);
+                Log.d(TAG, "cancelWork - detached from work for " + bitmapData);
             }
         }
     }
 
     /**
-     * Returns true if the current work has been canceled or if there was no work in
-     * progress on this image view.
+     * Returns true if the image view has been detached from its current work (which is
+     * cancelled if no other image view waits for it) or if there was no work in progress on
+     * this image view.
      * Returns false if the work in progress deals with the same data. The work is not
      * stopped in that case.
      */
     public static boolean cancelPotentialWork(Object data, ImageView imageView) {
+        return cancelPotentialWork(data, imageView, null);
+    }
+
+    /**
+     * Same as {@link #cancelPotentialWork(Object, android.widget.ImageView)}, but raises the
+     * priority of the work in progress if it deals with the same data and has a lower priority.
+     */
+    private static boolean cancelPotentialWork(Object data, ImageView imageView, Priority priority) {
         final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
 
         if (bitmapWorkerTask != null) {
             final Object bitmapData = bitmapWorkerTask.mmData;
-            if (bitmapData == null || !bitmapData.equals(data)) {
-                bitmapWorkerTask.cancel(true);
+            if (bitmapData == null || !bitmapData.equals(data) || bitmapWorkerTask.isCancelled()) {
+                bitmapWorkerTask.detach(imageView);
                 if (ImageWorker.DEBUG) {
-                    Log.d(TAG, "cancelPotentialWork - cancelled work for " + data);
+                    Log.d(TAG, "cancelPotentialWork - detached from work for " + bitmapData);
                 }
             } else {
                 // The same work is already in progress.
+                if (priority != null && priority.compareTo(bitmapWorkerTask.getPriority()) < 0) {
+                    bitmapWorkerTask.setPriority(priority);
+                }
                 return false;
             }
         }
@@ -134,7 +190,7 @@ public abstract class ImageWorker {
      * to define the processing logic). A memory and disk<br>
      * cache will be used if an {@link com.opensource.bitmaploader.ImageCache} has been set using<br>
      * {@link ImageWorker#setImageCache(com.opensource.bitmaploader.ImageCache)}. If the image is found in the memory cache, it<br>
-     * is set immediately, otherwise an {@link android.os.AsyncTask} will be created to asynchronously load the<br>
+     * is set immediately, otherwise a background task will be created to asynchronously load the<br>
      * bitmap.<br>
      *
      * @param data      The URL of the image to download.
@@ -142,15 +198,13 @@ public abstract class ImageWorker {
      * @param l         The listener to listen bitmap load.
      */
     public void loadImage(Object data, ImageView imageView, LoadListener l) {
-    	if(null != mLoadingBitmap && null != imageView) {
-    		imageView.setImageBitmap(mLoadingBitmap);
-    	}
         if (l != null) {
             l.onStart(imageView, data);
         }
+        final String cacheKey = getCacheKey(data);
         Bitmap bitmap = null;
         if (mImageCache != null) {
-            bitmap = mImageCache.getBitmapFromMemCache(String.valueOf(data));
+            bitmap = mImageCache.getBitmapFromMemCache(cacheKey);
         }
 
         if (bitmap != null && !bitmap.isRecycled()) {
@@ -158,16 +212,17 @@ public abstract class ImageWorker {
             if (l != null) {
                 l.onLoaded(imageView, bitmap);
             }
+            final Drawable previous = imageView.getDrawable();
             imageView.setImageBitmap(bitmap);
+            recycleDrawable(previous);
             if (l != null) {
                 l.onSet(imageView, bitmap);
             }
-        } else if (cancelPotentialWork(data, imageView)) {
-            final BitmapWorkerTask task = new BitmapWorkerTask(imageView, l);
-            final AsyncDrawable asyncDrawable =
-                    new AsyncDrawable(mContext.getResources(), mLoadingBitmap, task);
-            imageView.setImageDrawable(asyncDrawable);
-            task.execute(data);
+        } else if (sNegativeCache.contains(cacheKey)) {
+            // Failed recently, don't try again until the failure expires
+            setRecentlyFailed(data, imageView, l);
+        } else if (cancelPotentialWork(data, imageView, mPriority)) {
+            startWork(data, cacheKey, imageView, mDefaultBitmapConfig, mPriority, l);
         }
     }
 
@@ -177,7 +232,7 @@ public abstract class ImageWorker {
      * to define the processing logic). A memory and disk
      * cache will be used if an {@link com.opensource.bitmaploader.ImageCache} has been set using
      * {@link ImageWorker#setImageCache(com.opensource.bitmaploader.ImageCache)}. If the image is found in the memory cache, it
-     * is set immediately, otherwise an {@link android.os.AsyncTask} will be created to asynchronously load the
+     * is set immediately, otherwise a background task will be created to asynchronously load the
      * bitmap. {@link ImageWorker#setAdapter(com.opensource.bitmaploader.ImageWorker.ImageWorkerAdapter)} must be called before using this
      * method.
      *
@@ -199,7 +254,7 @@ public abstract class ImageWorker {
      * to define the processing logic). A memory and disk
      * cache will be used if an {@link com.opensource.bitmaploader.ImageCache} has been set using
      * {@link ImageWorker#setImageCache(com.opensource.bitmaploader.ImageCache)}. If the image is found in the memory cache, it
-     * is set immediately, otherwise an {@link android.os.AsyncTask} will be created to asynchronously load the
+     * is set immediately, otherwise a background task will be created to asynchronously load the
      * bitmap.
      *
      * @param data      The URL of the image to download.
@@ -215,7 +270,7 @@ public abstract class ImageWorker {
      * to define the processing logic). A memory and disk
      * cache will be used if an {@link com.opensource.bitmaploader.ImageCache} has been set using
      * {@link ImageWorker#setImageCache(com.opensource.bitmaploader.ImageCache)}. If the image is found in the memory cache, it
-     * is set immediately, otherwise an {@link android.os.AsyncTask} will be created to asynchronously load the
+     * is set immediately, otherwise a background task will be created to asynchronously load the
      * bitmap. {@link ImageWorker#setAdapter(com.opensource.bitmaploader.ImageWorker.ImageWorkerAdapter)} must be called before using this
      * method.
      *
@@ -239,16 +294,28 @@ public abstract class ImageWorker {
      * @param l
      */
     public void loadImage(Object data, ImageView imageView, Bitmap.Config config, LoadListener l) {
-    	if(null != mLoadingBitmap && null != imageView) {
-    		imageView.setImageBitmap(mLoadingBitmap);
-    	}
+        loadImage(data, imageView, config, mPriority, l);
+    }
+
+    /**
+     * Load an image specified by the data parameter with a priority other than the one of this
+     * worker, see {@link #setPriority(Priority)}.
+     *
+     * @param data      The URL of the image to download.
+     * @param imageView The ImageView to bind the downloaded image to.
+     * @param config    The config of bitmap
+     * @param priority  The priority of the load
+     * @param l         The listener to listen bitmap load.
+     */
+    public void loadImage(Object data, ImageView imageView, Bitmap.Config config, Priority priority, LoadListener l) {
         if (l != null) {
             l.onStart(imageView, data);
         }
+        final String cacheKey = getCacheKey(data);
         Bitmap bitmap = null;
 
         if (mImageCache != null) {
-            bitmap = mImageCache.getBitmapFromMemCache(String.valueOf(data));
+            bitmap = mImageCache.getBitmapFromMemCache(cacheKey);
         }
 
         if (bitmap != null && !bitmap.isRecycled() && bitmap.getConfig() == config) {
@@ -256,16 +323,157 @@ public abstract class ImageWorker {
             if (l != null) {
                 l.onLoaded(imageView, bitmap);
             }
+            final Drawable previous = imageView.getDrawable();
             imageView.setImageBitmap(bitmap);
+            recycleDrawable(previous);
             if (l != null) {
                 l.onSet(imageView, bitmap);
             }
-        } else if (cancelPotentialWork(data, imageView)) {
-            final BitmapWorkerTask task = new BitmapWorkerTask(imageView, config, l);
-            final AsyncDrawable asyncDrawable =
-                    new AsyncDrawable(mContext.getResources(), mLoadingBitmap, task);
-            imageView.setImageDrawable(asyncDrawable);
-            task.execute(data);
+        } else if (sNegativeCache.contains(cacheKey)) {
+            // Failed recently, don't try again until the failure expires
+            setRecentlyFailed(data, imageView, l);
+        } else if (cancelPotentialWork(data, imageView, priority)) {
+            startWork(data, cacheKey, imageView, config, priority, l);
+        }
+    }
+
+    /**
+     * Bind the ImageView to the load of the data. If a load of the same data and config is in
+     * flight for another ImageView, the ImageView is attached to it and gets the same bitmap,
+     * otherwise a new load is started.
+     */
+    private void startWork(Object data, String cacheKey, ImageView imageView, Bitmap.Config config,
+                           Priority priority, LoadListener l) {
+        final String key = cacheKey + "#" + config;
+        BitmapWorkerTask task;
+        synchronized (mInFlightTasks) {
+            task = mInFlightTasks.get(key);
+        }
+        if (task != null && task.attach(imageView, l)) {
+            if (ImageWorker.DEBUG) {
+                Log.d(TAG, "loadImage - joined work for " + data);
+            }
+            setImageDrawable(imageView, obtainAsyncDrawable(task));
+            if (priority.compareTo(task.getPriority()) < 0) {
+                task.setPriority(priority);
+            }
+            return;
+        }
+        task = new BitmapWorkerTask(cacheKey, key, imageView, config, l);
+        setImageDrawable(imageView, obtainAsyncDrawable(task));
+        task.setPriority(priority);
+        synchronized (mInFlightTasks) {
+            mInFlightTasks.put(key, task);
+        }
+        task.execute(data);
+    }
+
+    /**
+     * Set the drawable of the ImageView, and give the one it replaces back to the pool.
+     */
+    private void setImageDrawable(ImageView imageView, Drawable drawable) {
+        final Drawable previous = imageView.getDrawable();
+        imageView.setImageDrawable(drawable);
+        recycleDrawable(previous);
+    }
+
+    /**
+     * Get an AsyncDrawable of the loading bitmap from the pool, or a new one if the pool is
+     * empty, bound to the task.
+     */
+    private AsyncDrawable obtainAsyncDrawable(BitmapWorkerTask task) {
+        synchronized (mDrawablePoolLock) {
+            if (mAsyncDrawablePoolSize > 0) {
+                final AsyncDrawable drawable = mAsyncDrawablePool[--mAsyncDrawablePoolSize];
+                mAsyncDrawablePool[mAsyncDrawablePoolSize] = null;
+                mDrawableReuses++;
+                drawable.bind(task);
+                return drawable;
+            }
+            mDrawableAllocations++;
+        }
+        return new AsyncDrawable(mContext.getResources(), mLoadingBitmap, task);
+    }
+
+    /**
+     * Give a drawable which an ImageView doesn't show any more back to the pool, if it is an
+     * AsyncDrawable of the loading bitmap. Other drawables are left alone.
+     */
+    private void recycleDrawable(Drawable drawable) {
+        if (!(drawable instanceof AsyncDrawable)
+                || ((AsyncDrawable) drawable).getBitmap() != mLoadingBitmap) {
+            return;
+        }
+        final AsyncDrawable asyncDrawable = (AsyncDrawable) drawable;
+        asyncDrawable.bind(null);
+        synchronized (mDrawablePoolLock) {
+            if (mAsyncDrawablePoolSize < MAX_DRAWABLE_POOL_SIZE) {
+                mAsyncDrawablePool[mAsyncDrawablePoolSize++] = asyncDrawable;
+            }
+        }
+    }
+
+    /**
+     * Get a drawable of the loading bitmap for the background of a fading ImageView from the
+     * pool, or a new one if the pool is empty.
+     */
+    private BitmapDrawable obtainLoadingBackground() {
+        synchronized (mDrawablePoolLock) {
+            if (mBackgroundPoolSize > 0) {
+                final BitmapDrawable drawable = mBackgroundPool[--mBackgroundPoolSize];
+                mBackgroundPool[mBackgroundPoolSize] = null;
+                mDrawableReuses++;
+                return drawable;
+            }
+            mDrawableAllocations++;
+        }
+        return new BitmapDrawable(mContext.getResources(), mLoadingBitmap);
+    }
+
+    private void recycleLoadingBackground(BitmapDrawable drawable) {
+        if (drawable.getBitmap() != mLoadingBitmap) {
+            return;
+        }
+        synchronized (mDrawablePoolLock) {
+            if (mBackgroundPoolSize < MAX_DRAWABLE_POOL_SIZE) {
+                mBackgroundPool[mBackgroundPoolSize++] = drawable;
+            }
+        }
+    }
+
+    /**
+     * Get the number of placeholder drawables this worker has allocated, because its pools
+     * were empty. Compare with {@link #getDrawableReuseCount()} to see how well the pools work,
+     * in the steady state of a scrolling list almost every drawable is reused.
+     *
+     * @return the number of drawables allocated
+     */
+    public int getDrawableAllocationCount() {
+        synchronized (mDrawablePoolLock) {
+            return mDrawableAllocations;
+        }
+    }
+
+    /**
+     * Get the number of placeholder drawables this worker has taken from its pools instead of
+     * allocating them.
+     *
+     * @return the number of drawables reused
+     */
+    public int getDrawableReuseCount() {
+        synchronized (mDrawablePoolLock) {
+            return mDrawableReuses;
+        }
+    }
+
+    /**
+     * Stop other ImageViews from joining a load which has finished or been cancelled.
+     */
+    private void removeInFlight(BitmapWorkerTask task) {
+        synchronized (mInFlightTasks) {
+            if (mInFlightTasks.get(task.mmKey) == task) {
+                mInFlightTasks.remove(task.mmKey);
+            }
         }
     }
 
@@ -285,7 +493,13 @@ public abstract class ImageWorker {
             l.onStart(null, data);
         }
         Bitmap bitmap = null;
-        String dataString = String.valueOf(data);
+        String dataString = getCacheKey(data);
+        if (sNegativeCache.contains(dataString)) {
+            if (l != null) {
+                l.onError(data, "Failed recently - " + data);
+            }
+            return null;
+        }
         if (mImageCache != null) {
             bitmap = mImageCache.getBitmapFromMemCache(dataString);
             if (bitmap == null) {
@@ -326,6 +540,118 @@ public abstract class ImageWorker {
         return getImageBitmap(data, config, null);
     }
 
+    /**
+     * Warm the caches with images which will probably be shown soon, with no byte budget.
+     *
+     * @param data   The data of the images, in the order to fetch them
+     * @param target Whether to fetch to the disk only or decode into the memory cache as well
+     * @return the prefetch, which can be cancelled
+     */
+    public PrefetchTask prefetch(Collection<?> data, PrefetchTarget target) {
+        return prefetch(data, target, Long.MAX_VALUE);
+    }
+
+    /**
+     * Warm the caches with images which will probably be shown soon. The prefetch runs at low
+     * priority and never delays the loads of {@link #loadImage(Object, android.widget.ImageView)},
+     * see {@link PrefetchTask}. Images already cached and images which failed recently are
+     * skipped.
+     *
+     * @param data       The data of the images, in the order to fetch them
+     * @param target     Whether to fetch to the disk only or decode into the memory cache as well
+     * @param byteBudget The prefetch stops when it has fetched this many bytes
+     * @return the prefetch, which can be cancelled
+     */
+    public PrefetchTask prefetch(Collection<?> data, PrefetchTarget target, long byteBudget) {
+        final PrefetchTask task = new PrefetchTask(this, data, target, byteBudget);
+        task.start();
+        return task;
+    }
+
+    /**
+     * Fetch the source of an image to the disk without decoding it, for
+     * {@link #prefetch(java.util.Collection, PrefetchTarget, long)}. Called in a background thread.
+     * Subclasses which load from the network override this, the source of other workers is
+     * already local.
+     *
+     * @param data The data of the image
+     * @return the number of bytes fetched, 0 if the source was already on the disk, -1 if it failed
+     */
+    protected long fetchSource(Object data) {
+        return 0;
+    }
+
+    /**
+     * Prefetch one image.
+     *
+     * @param signal The cancellation signal of the prefetch, see {@link #getCancellationSignal()}
+     * @return the number of bytes fetched
+     */
+    long prefetchData(Object data, PrefetchTarget target, CancellationSignal signal) {
+        sCurrentSignal.set(signal);
+        try {
+            return prefetchDataInternal(data, target);
+        } finally {
+            sCurrentSignal.remove();
+        }
+    }
+
+    private long prefetchDataInternal(Object data, PrefetchTarget target) {
+        final String key = getCacheKey(data);
+        if (sNegativeCache.contains(key)) {
+            return 0;
+        }
+        if (target == PrefetchTarget.MEMORY && mImageCache != null
+                && mImageCache.getBitmapFromMemCache(key) != null) {
+            return 0;
+        }
+        final long bytes = fetchSource(data);
+        if (bytes < 0 || target == PrefetchTarget.DISK || mImageCache == null) {
+            return Math.max(bytes, 0);
+        }
+        Bitmap bitmap = mImageCache.getBitmapFromDiskCache(key, mDefaultBitmapConfig);
+        if (bitmap == null) {
+            bitmap = processBitmap(data, mDefaultBitmapConfig, null);
+            if (bitmap != null) {
+                mImageCache.addBitmapToDiskCache(key, bitmap);
+            }
+        }
+        if (bitmap != null) {
+            mImageCache.addBitmapToMenCache(key, bitmap);
+        }
+        return bytes;
+    }
+
+    boolean isExitTasksEarly() {
+        return mExitTasksEarly;
+    }
+
+    /**
+     * Get the cache of requests which failed recently, shared by all workers. Subclasses put
+     * their failures in it, and {@link #loadImage(Object, android.widget.ImageView, LoadListener)}
+     * shows the failed image for them without starting any work.
+     *
+     * @return the negative cache
+     */
+    public static NegativeCache getNegativeCache() {
+        return sNegativeCache;
+    }
+
+    /**
+     * Show the failed image for a request which failed recently.
+     */
+    private void setRecentlyFailed(Object data, ImageView imageView, LoadListener l) {
+        cancelWork(imageView);
+        if (ImageWorker.DEBUG) {
+            Log.d(TAG, "loadImage - failed recently - " + data);
+        }
+        if (l != null) {
+            l.onError(data, "Failed recently - " + data);
+            l.onLoaded(imageView, null);
+        }
+        setImageBitmap(imageView, null, l);
+    }
+
     /**
      * Get disk cache file.
      *
@@ -336,7 +662,7 @@ public abstract class ImageWorker {
         if (mImageCache == null) {
             return null;
         }
-        String dataString = String.valueOf(data);
+        String dataString = getCacheKey(data);
         return mImageCache.getDiskCacheFile(dataString);
     }
 
@@ -347,6 +673,13 @@ public abstract class ImageWorker {
      */
     public void setLoadingImage(Bitmap bitmap) {
         mLoadingBitmap = bitmap;
+        // The pooled drawables show the old bitmap
+        synchronized (mDrawablePoolLock) {
+            Arrays.fill(mAsyncDrawablePool, null);
+            mAsyncDrawablePoolSize = 0;
+            Arrays.fill(mBackgroundPool, null);
+            mBackgroundPoolSize = 0;
+        }
     }
 
     /**
@@ -364,7 +697,7 @@ public abstract class ImageWorker {
      * @param resId
      */
     public void setLoadingImage(int resId) {
-        mLoadingBitmap = BitmapFactory.decodeResource(mContext.getResources(), resId);
+        setLoadingImage(BitmapFactory.decodeResource(mContext.getResources(), resId));
     }
 
     /**
@@ -418,6 +751,141 @@ public abstract class ImageWorker {
 
     public void setExitTasksEarly(boolean exitTasksEarly) {
         mExitTasksEarly = exitTasksEarly;
+        if (exitTasksEarly) {
+            // Let the held tasks finish early
+            setPauseWork(false);
+        }
+    }
+
+    /**
+     * Set the priority of the loads of this worker, {@link Priority#VISIBLE} by default. The loads
+     * of all workers share the same queues, so for example a worker of full screen pictures can use
+     * {@link Priority#IMMEDIATE} to run before the thumbnails of a strip below them.
+     *
+     * @param priority The priority of the loads started after this call
+     */
+    public void setPriority(Priority priority) {
+        if (priority == null) {
+            throw new NullPointerException("priority == null");
+        }
+        mPriority = priority;
+    }
+
+    /**
+     * Get the priority of the loads of this worker.
+     *
+     * @return the priority
+     */
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Pause or resume the background work, for example while a list is flinging (see
+     * {@link PauseOnScrollListener}). Paused loads are held aside before they read the disk
+     * cache, without holding a thread, and images found in the memory cache are still set at
+     * once. On resume, the loads whose ImageView has been scrolled out of the window meanwhile
+     * are cancelled instead of run. The prefetch waits while the work is paused too. Must be
+     * invoked on the UI thread, where the visibility of the ImageViews is checked.
+     *
+     * @param pauseWork true to pause, false to resume
+     */
+    public void setPauseWork(boolean pauseWork) {
+        final ArrayList<BitmapWorkerTask> resumed;
+        synchronized (mPauseWorkLock) {
+            mPauseWork = pauseWork;
+            if (pauseWork || mPausedTasks.isEmpty()) {
+                return;
+            }
+            resumed = new ArrayList<BitmapWorkerTask>(mPausedTasks);
+            mPausedTasks.clear();
+        }
+        for (BitmapWorkerTask task : resumed) {
+            if (task.isCancelled()) {
+                continue;
+            }
+            if (!task.isAttachedImageViewShown()) {
+                // Scrolled away during the pause, load it again if it comes back
+                task.cancel();
+                continue;
+            }
+            LoadExecutor.getDiskExecutor().execute(task);
+        }
+        synchronized (mPauseWorkLock) {
+            mPauseWorkLock.notifyAll();
+        }
+    }
+
+    /**
+     * Whether the background work is paused.
+     *
+     * @return true if paused
+     */
+    public boolean isPauseWork() {
+        return mPauseWork;
+    }
+
+    /**
+     * Block while the work is paused, for the prefetch which has a thread of its own.
+     *
+     * @param signal Stops the wait when cancelled
+     * @return the time waited in milliseconds
+     */
+    long waitWhilePaused(CancellationSignal signal) {
+        if (!mPauseWork) {
+            return 0;
+        }
+        final long start = SystemClock.uptimeMillis();
+        final CancellationSignal.OnCancelListener wake = new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                synchronized (mPauseWorkLock) {
+                    mPauseWorkLock.notifyAll();
+                }
+            }
+        };
+        signal.addOnCancelListener(wake);
+        try {
+            synchronized (mPauseWorkLock) {
+                while (mPauseWork && !mExitTasksEarly && !signal.isCanceled()) {
+                    mPauseWorkLock.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            signal.removeOnCancelListener(wake);
+        }
+        return SystemClock.uptimeMillis() - start;
+    }
+
+    /**
+     * Forget a load held aside while the work is paused.
+     *
+     * @return true if the load was held
+     */
+    private boolean releasePaused(BitmapWorkerTask task) {
+        synchronized (mPauseWorkLock) {
+            return mPausedTasks.remove(task);
+        }
+    }
+
+    /**
+     * Hold a load aside if the work is paused.
+     *
+     * @return true if the load is held
+     */
+    private boolean holdWhilePaused(BitmapWorkerTask task) {
+        if (!mPauseWork) {
+            return false;
+        }
+        synchronized (mPauseWorkLock) {
+            if (!mPauseWork || task.isCancelled()) {
+                return false;
+            }
+            mPausedTasks.add(task);
+            return true;
+        }
     }
 
     /**
@@ -433,6 +901,164 @@ public abstract class ImageWorker {
      */
     protected abstract Bitmap processBitmap(Object data, Bitmap.Config config, LoadListener l);
 
+    /**
+     * Whether a load must fetch the source of its image before it is decoded, see
+     * {@link #loadSource(Object, LoadListener, ResultCallback)}. Called in the disk stage when the
+     * bitmap is not in the disk cache, so it may read the disk but must not block on the network.
+     * Subclasses which load from the network override this, the source of other workers is
+     * already local.
+     *
+     * @param data The data of the image
+     * @return true to fetch the source, false to go straight to the decode stage
+     */
+    protected boolean needsSource(Object data) {
+        return false;
+    }
+
+    /**
+     * Start fetching the source of an image, for
+     * {@link #decodeSource(Object, Object, android.graphics.Bitmap.Config, LoadListener)}. Called
+     * in the disk stage, it must not block: the fetch runs elsewhere (like the
+     * {@link NetworkScheduler}) and hands the source to the callback, which moves the load to the
+     * decode stage. Errors are reported to the listener.
+     *
+     * @param data     The data of the image
+     * @param l        The listener to listen bitmap load.
+     * @param callback Gets the source, null if it failed
+     */
+    protected void loadSource(Object data, LoadListener l, ResultCallback<Object> callback) {
+        callback.onResult(null);
+    }
+
+    /**
+     * Decode the bitmap of a load in the decode stage. The default implementation calls
+     * {@link #processBitmap(Object, android.graphics.Bitmap.Config, LoadListener)}.
+     *
+     * @param data   The data of the image
+     * @param source The source fetched by {@link #loadSource(Object, LoadListener, ResultCallback)},
+     *               null if the load didn't need to fetch one. The source is released by this
+     *               method.
+     * @param config The config of bitmap.
+     * @param l      The listener to listen bitmap load.
+     * @return The processed bitmap
+     */
+    protected Bitmap decodeSource(Object data, Object source, Bitmap.Config config, LoadListener l) {
+        return processBitmap(data, config, l);
+    }
+
+    /**
+     * Release a source fetched by {@link #loadSource(Object, LoadListener, ResultCallback)} which will not be
+     * decoded, because the load has been cancelled.
+     *
+     * @param source The source
+     */
+    protected void releaseSource(Object source) {
+    }
+
+    /**
+     * Get the key of the memory and disk cache for a data. Subclasses which load different
+     * bitmaps for the same data (for example a different size) override this so that the
+     * bitmaps don't share a cache entry.
+     *
+     * @param data The data to load the bitmap
+     * @return the cache key, {@link String#valueOf(Object)} of the data by default
+     */
+    protected String getCacheKey(Object data) {
+        return String.valueOf(data);
+    }
+
+    /**
+     * Whether the work running in the current background thread has an ImageView which can show
+     * a preview. Called by subclasses from
+     * {@link #processBitmap(Object, android.graphics.Bitmap.Config, LoadListener)}.
+     *
+     * @return true if {@link #publishPreview(android.graphics.Bitmap)} would show the preview
+     */
+    protected boolean hasPreviewTarget() {
+        final BitmapWorkerTask task = sCurrentTask.get();
+        return task != null && !task.isCancelled() && task.hasAttachedImageView();
+    }
+
+    /**
+     * Show an intermediate low resolution bitmap on the ImageViews of the work running in the
+     * current background thread, for example while a large image is downloading. The preview is
+     * dropped if the work has finished or the ImageView has been bound to other work meanwhile,
+     * so the final bitmap always replaces it. Called by subclasses from
+     * {@link #processBitmap(Object, android.graphics.Bitmap.Config, LoadListener)}.
+     *
+     * @param preview The preview bitmap
+     */
+    protected void publishPreview(final Bitmap preview) {
+        final BitmapWorkerTask task = sCurrentTask.get();
+        if (task == null || preview == null) {
+            return;
+        }
+        // Same queue as the final bitmap, so the preview never lands after it
+        FrameDispatcher.getInstance().post(new Runnable() {
+            @Override
+            public void run() {
+                if (task.isDone() || mExitTasksEarly) {
+                    return;
+                }
+                for (Target target = task.getTargets(); target != null; target = target.mmNext) {
+                    final ImageView imageView = task.getAttachedImageView(target);
+                    if (imageView != null) {
+                        // Keep the AsyncDrawable (which binds the view to the task), only its bitmap changes
+                        final AsyncDrawable drawable = (AsyncDrawable) imageView.getDrawable();
+                        drawable.setPreview(preview);
+                        // Set again, so that the view is laid out for the size of the preview
+                        imageView.setImageDrawable(null);
+                        imageView.setImageDrawable(drawable);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the cancellation signal of the work running in the current background thread, for
+     * subclasses to stop a long step of
+     * {@link #processBitmap(Object, android.graphics.Bitmap.Config, LoadListener)} (like a
+     * download or a decode) as soon as the work is cancelled. A cancelled work may return null.
+     *
+     * @return the signal, null if the current thread doesn't run a work of a worker
+     */
+    protected CancellationSignal getCancellationSignal() {
+        return sCurrentSignal.get();
+    }
+
+    /**
+     * Wrap a work so that it runs on behalf of the work running in the current background thread,
+     * for subclasses which hand part of the processing to another thread. The previews published
+     * by the wrapped work go to the ImageView of the current work, and
+     * {@link #getCancellationSignal()} gives the signal of the current work.
+     *
+     * @param callable The work to hand over
+     * @return the wrapped work
+     */
+    protected <V> Callable<V> bindToCurrentWork(final Callable<V> callable) {
+        final BitmapWorkerTask task = sCurrentTask.get();
+        final CancellationSignal signal = sCurrentSignal.get();
+        if (task == null && signal == null) {
+            return callable;
+        }
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                final BitmapWorkerTask previousTask = sCurrentTask.get();
+                final CancellationSignal previousSignal = sCurrentSignal.get();
+                sCurrentTask.set(task);
+                sCurrentSignal.set(signal);
+                try {
+                    return callable.call();
+                } finally {
+                    sCurrentTask.set(previousTask);
+                    sCurrentSignal.set(previousSignal);
+                }
+            }
+        };
+    }
+
     /**
      * Called when the processing is complete and the final bitmap should be set on the ImageView.
      *
@@ -447,13 +1073,15 @@ public abstract class ImageWorker {
             //If bitmap is null, set default failed bitmap.
             bitmap = mLoadFailedBitmap;
         }
-        // Set background to loading bitmap
-        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
-        	imageView.setBackgroundDrawable(new BitmapDrawable(mContext.getResources(), mLoadingBitmap));
-        } else {
-        	imageView.setBackground(new BitmapDrawable(mContext.getResources(), mLoadingBitmap));
-        }
+        final Drawable previous = imageView.getDrawable();
         if (mFadeInBitmap) {
+            // Set background to loading bitmap
+            final BitmapDrawable background = obtainLoadingBackground();
+            if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            	imageView.setBackgroundDrawable(background);
+            } else {
+            	imageView.setBackground(background);
+            }
             // Transition drawable with a transparent drwabale and the final bitmap
             final TransitionDrawable td =
                     new TransitionDrawable(new Drawable[]{
@@ -466,13 +1094,18 @@ public abstract class ImageWorker {
             mHandler.postDelayed(new Runnable() {
 				@Override
 				public void run() {
-					imageView.setBackgroundResource(Color.TRANSPARENT);
+					if (imageView.getBackground() == background) {
+						imageView.setBackgroundResource(Color.TRANSPARENT);
+					}
+					recycleLoadingBackground(background);
 				}
 			}, FADE_IN_TIME);
         } else {
+            // Nothing shows through the bitmap, no loading background needed
             imageView.setImageBitmap(bitmap);
             imageView.setBackgroundResource(Color.TRANSPARENT);
         }
+        recycleDrawable(previous);
         if (l != null) {
             l.onSet(imageView, bitmap);
         }
@@ -500,20 +1133,73 @@ public abstract class ImageWorker {
      * A custom Drawable that will be attached to the imageView while the work is in progress.
      * Contains a reference to the actual worker task, so that it can be stopped if a new binding is
      * required, and makes sure that only the last started worker process can bind its result,
-     * independently of the finish order.
+     * independently of the finish order. The drawables of the loading bitmap are pooled by the
+     * worker and bound to another task when they are reused.
      */
     private static class AsyncDrawable extends BitmapDrawable {
-        private final WeakReference<BitmapWorkerTask> bitmapWorkerTaskReference;
+        private volatile WeakReference<BitmapWorkerTask> bitmapWorkerTaskReference;
+        private final int mmTargetDensity;
+        // Drawn instead of the loading bitmap, until the drawable is bound again
+        private volatile Bitmap mmPreview;
 
         public AsyncDrawable(Resources res, Bitmap bitmap, BitmapWorkerTask bitmapWorkerTask) {
             super(res, bitmap);
+            mmTargetDensity = res.getDisplayMetrics().densityDpi;
 
-            bitmapWorkerTaskReference =
-                    new WeakReference<BitmapWorkerTask>(bitmapWorkerTask);
+            bind(bitmapWorkerTask);
         }
 
         public BitmapWorkerTask getBitmapWorkerTask() {
-            return bitmapWorkerTaskReference.get();
+            final WeakReference<BitmapWorkerTask> reference = bitmapWorkerTaskReference;
+            return reference == null ? null : reference.get();
+        }
+
+        /**
+         * Bind the drawable to another task, null to unbind it when it goes back to the pool.
+         */
+        public void bind(BitmapWorkerTask bitmapWorkerTask) {
+            bitmapWorkerTaskReference = bitmapWorkerTask == null
+                    ? null : new WeakReference<BitmapWorkerTask>(bitmapWorkerTask);
+            mmPreview = null;
+        }
+
+        /**
+         * Show a preview of the image instead of the loading bitmap.
+         */
+        public void setPreview(Bitmap preview) {
+            mmPreview = preview;
+            invalidateSelf();
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            final Bitmap preview = mmPreview;
+            if (preview == null) {
+                super.draw(canvas);
+            } else if (!preview.isRecycled()) {
+                canvas.drawBitmap(preview, null, getBounds(), getPaint());
+            }
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            final Bitmap preview = mmPreview;
+            return preview == null ? super.getIntrinsicWidth() : preview.getScaledWidth(mmTargetDensity);
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            final Bitmap preview = mmPreview;
+            return preview == null ? super.getIntrinsicHeight() : preview.getScaledHeight(mmTargetDensity);
+        }
+
+        @Override
+        public int getOpacity() {
+            final Bitmap preview = mmPreview;
+            if (preview == null) {
+                return super.getOpacity();
+            }
+            return preview.hasAlpha() ? PixelFormat.TRANSLUCENT : PixelFormat.OPAQUE;
         }
     }
 
@@ -527,113 +1213,401 @@ public abstract class ImageWorker {
     }
 
     /**
-     * The actual AsyncTask that will asynchronously process the image.
+     * Writes a bitmap to the disk cache in the disk stage, after it has been delivered.
+     */
+    private static class DiskCacheWriteTask extends LoadExecutor.Task {
+        private final String mmKey;
+        private final Bitmap mmBitmap;
+
+        public DiskCacheWriteTask(String key, Bitmap bitmap) {
+            mmKey = key;
+            mmBitmap = bitmap;
+            setPriority(Priority.BACKGROUND);
+        }
+
+        @Override
+        protected void runStage() {
+            final ImageCache imageCache = mImageCache;
+            if (imageCache != null && !mmBitmap.isRecycled()) {
+                imageCache.addBitmapToDiskCache(mmKey, mmBitmap);
+            }
+        }
+    }
+
+    /**
+     * An ImageView waiting for a load, and its listener.
      */
-    private class BitmapWorkerTask extends AsyncTask<Object, Void, Bitmap> {
+    private static class Target {
         private final WeakReference<ImageView> mmImageViewReference;
-        private Object mmData;
-        private LoadListener mmListener;        
-        private Bitmap.Config mmConfig = mDefaultBitmapConfig;
-        public BitmapWorkerTask(ImageView imageView, LoadListener l) {
-            imageView.setImageBitmap(mLoadingBitmap);
+        private final LoadListener mmListener;
+        // Never changed, so a list read under the lock of its task can be walked outside it
+        private final Target mmNext;
+
+        public Target(ImageView imageView, LoadListener l, Target next) {
             mmImageViewReference = new WeakReference<ImageView>(imageView);
-            this.mmListener = l;
+            mmListener = l;
+            mmNext = next;
+        }
+
+        public Target(Target target, Target next) {
+            mmImageViewReference = target.mmImageViewReference;
+            mmListener = target.mmListener;
+            mmNext = next;
         }
+    }
+
+    /**
+     * The load of an image, which moves through the stages of {@link LoadExecutor}: the disk
+     * cache is read in the disk stage, the source is fetched if {@link #needsSource(Object)} says
+     * so, without holding a thread while it waits for the network, and the bitmap is decoded in
+     * the decode stage.<br>
+     * <p>Several ImageViews (targets) can wait for the same load: they are attached and detached
+     * while it is in flight, the bitmap is delivered to every target still attached, and the load
+     * is cancelled only when the last target is detached.
+     */
+    private class BitmapWorkerTask extends LoadExecutor.Task implements ResultCallback<Object> {
+        // The key of the caches, and the key of the load in flight (which adds the config)
+        private final String mmCacheKey;
+        private final String mmKey;
+        // Guarded by this, most recently attached first. The listeners are created when a stage
+        // needs them, most loads have a single target and many no listener.
+        private Target mmTargets;
+        private LoadListener mmListener = null;
+        private LoadListener mmProgressListener = null;
+        private Object mmData;
+        private Bitmap.Config mmConfig = mDefaultBitmapConfig;
+
+        // Handed from one stage to the next by the executors
+        private int mmStage = STAGE_DISK;
+        private Object mmSource = null;
 
-        public BitmapWorkerTask(ImageView imageView, Bitmap.Config config, LoadListener l) {
-            this(imageView, l);
+        private final CancellationSignal mmSignal = new CancellationSignal();
+        // Guarded by this
+        private boolean mmDone = false;
+        private boolean mmCancelled = false;
+
+        public BitmapWorkerTask(String cacheKey, String key, ImageView imageView, Bitmap.Config config, LoadListener l) {
+            mmCacheKey = cacheKey;
+            mmKey = key;
+            mmTargets = new Target(imageView, l, null);
             this.mmConfig = config;
         }
 
         /**
-         * Background processing.
+         * Attach another ImageView to the load. Must be invoked on the UI thread.
+         *
+         * @return false if the load has already finished or been cancelled
+         */
+        public synchronized boolean attach(ImageView imageView, LoadListener l) {
+            if (mmDone) {
+                return false;
+            }
+            mmTargets = new Target(imageView, l, mmTargets);
+            return true;
+        }
+
+        /**
+         * Detach an ImageView from the load, and cancel the load if no other ImageView waits
+         * for it. Must be invoked on the UI thread.
+         */
+        public void detach(ImageView imageView) {
+            final Target targets;
+            boolean remaining = false;
+            synchronized (this) {
+                if (mmDone) {
+                    // The result is on its way, it is not set on views bound to other work
+                    return;
+                }
+                targets = mmTargets;
+                for (Target target = targets; target != null; target = target.mmNext) {
+                    final ImageView view = target.mmImageViewReference.get();
+                    if (view != null && view != imageView) {
+                        remaining = true;
+                        break;
+                    }
+                }
+                if (remaining) {
+                    // Copied, as the targets may be walked outside the lock
+                    Target kept = null;
+                    for (Target target = targets; target != null; target = target.mmNext) {
+                        if (target.mmImageViewReference.get() != imageView) {
+                            kept = new Target(target, kept);
+                        }
+                    }
+                    mmTargets = kept;
+                }
+            }
+            if (!remaining) {
+                // The last target gets its callback from the cancel
+                cancel();
+                return;
+            }
+            for (Target target = targets; target != null; target = target.mmNext) {
+                if (target.mmListener != null && target.mmImageViewReference.get() == imageView) {
+                    target.mmListener.onCanceld(imageView, mmData);
+                }
+            }
+        }
+
+        /**
+         * Get the first target, to walk the targets outside the lock.
+         */
+        private synchronized Target getTargets() {
+            return mmTargets;
+        }
+
+        /**
+         * Start the load in the disk stage. Must be invoked on the UI thread.
+         */
+        public void execute(Object data) {
+            mmData = data;
+            LoadExecutor.getDiskExecutor().execute(this);
+        }
+
+        public synchronized boolean isCancelled() {
+            return mmCancelled;
+        }
+
+        public synchronized boolean isDone() {
+            return mmDone;
+        }
+
+        /**
+         * Cancel the load. A stage which has not started yet doesn't run, and the running stage
+         * is stopped through the cancellation signal: a download the load waits for is aborted
+         * unless other loads wait for it too, and a decode is stopped with
+         * {@link android.graphics.BitmapFactory.Options#requestCancelDecode()}.
+         *
+         * @return false if the load has already finished or been cancelled
+         */
+        public boolean cancel() {
+            synchronized (this) {
+                if (mmDone) {
+                    return false;
+                }
+                mmDone = true;
+                mmCancelled = true;
+            }
+            mmSignal.cancel();
+            removeInFlight(this);
+            // Don't leave it queued until a thread dequeues it
+            if (dequeue() || releasePaused(this)) {
+                releaseHeldSource();
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onCancelled();
+                }
+            });
+            return true;
+        }
+
+        @Override
+        protected void onDropped() {
+            cancel();
+            releaseHeldSource();
+        }
+
+        /**
+         * Release the source of a load which will not reach its decode stage.
          */
+        private void releaseHeldSource() {
+            final Object source = mmSource;
+            mmSource = null;
+            if (source != null) {
+                releaseSource(source);
+            }
+        }
+
         @Override
-        protected Bitmap doInBackground(Object... params) {
-            mmData = params[0];
-            final String dataString = String.valueOf(mmData);
-            Bitmap bitmap = null;
+        protected void runStage() {
+            sCurrentTask.set(this);
+            sCurrentSignal.set(mmSignal);
+            try {
+                switch (mmStage) {
+                    case STAGE_DISK:
+                        runDiskStage();
+                        break;
+                    default:
+                        runDecodeStage();
+                        break;
+                }
+            } finally {
+                sCurrentTask.remove();
+                sCurrentSignal.remove();
+            }
+        }
+
+        private void runDiskStage() {
+            // Held aside while the work is paused, queued again on resume
+            if (holdWhilePaused(this)) {
+                return;
+            }
 
             // If the image cache is available and this task has not been cancelled by another
             // thread and the ImageView that was originally bound to this task is still bound back
             // to this task and our "exit early" flag is not set then try and fetch the bitmap from
             // the cache
-            if (mImageCache != null && !isCancelled() && getAttachedImageView() != null
-                    && !mExitTasksEarly) {
+            if (!shouldRun()) {
+                finish(null);
+                return;
+            }
+            Bitmap bitmap = null;
+            if (mImageCache != null) {
                 try {
-                    bitmap = mImageCache.getBitmapFromDiskCache(dataString, mmConfig);
+                    bitmap = mImageCache.getBitmapFromDiskCache(mmCacheKey, mmConfig);
                 } catch (OutOfMemoryError error) {
                     error.printStackTrace();
                     mImageCache.cleanMemCache();
-                    if (mmListener != null) {
-                    	getAttachedImageView().setImageBitmap(mLoadFailedBitmap);
-                        mmListener.onError(mmData, error);
-                    }
+                    reportError(error);
+                }
+            }
+            if (bitmap != null) {
+                mImageCache.addBitmapToMenCache(mmCacheKey, bitmap);
+                finish(bitmap);
+            } else if (needsSource(mmData)) {
+                // The source comes back to onResult(), no thread waits for it
+                loadSource(mmData, getListener(), this);
+            } else {
+                moveTo(STAGE_DECODE, LoadExecutor.getDecodeExecutor());
+            }
+        }
+
+        /**
+         * Gets the source fetched by {@link #loadSource(Object, LoadListener, ResultCallback)},
+         * in the thread which fetched it.
+         */
+        @Override
+        public void onResult(Object source) {
+            if (source == null) {
+                // Cancelled, or the subclass has reported the failure
+                finish(null);
+                return;
+            }
+            if (isCancelled()) {
+                releaseSource(source);
+                return;
+            }
+            mmSource = source;
+            moveTo(STAGE_DECODE, LoadExecutor.getDecodeExecutor());
+        }
+
+        @Override
+        public void onError(Exception error) {
+            if (!(error instanceof CancellationException)) {
+                Log.e(TAG, "loadSource - " + error);
+                reportError(error);
+            }
+            finish(null);
+        }
+
+        private void runDecodeStage() {
+            final Object source = mmSource;
+            mmSource = null;
+            if (!shouldRun()) {
+                if (source != null) {
+                    releaseSource(source);
                 }
+                finish(null);
+                return;
             }
 
-            // If the bitmap was not found in the cache and this task has not been cancelled by
+            // The bitmap was not found in the cache and this task has not been cancelled by
             // another thread and the ImageView that was originally bound to this task is still
-            // bound back to this task and our "exit early" flag is not set, then call the main
+            // bound back to this task and our "exit early" flag is not set, so call the main
             // process method (as implemented by a subclass)
-            if (bitmap == null && !isCancelled() && getAttachedImageView() != null
-                    && !mExitTasksEarly) {
-                try {
-                    bitmap = processBitmap(params[0], mmConfig, mmListener);
-                } catch (OutOfMemoryError e) {
-                    e.printStackTrace();
-                    if (mmListener != null) {
-                    	getAttachedImageView().setImageBitmap(mLoadFailedBitmap);
-                        mmListener.onError(mmData, e);
-                    }
+            Bitmap bitmap = null;
+            try {
+                bitmap = decodeSource(mmData, source, mmConfig, getListener());
+            } catch (OutOfMemoryError e) {
+                e.printStackTrace();
+                if (mImageCache != null) {
+                    mImageCache.cleanMemCache();
                 }
+                reportError(e);
             }
 
             // If the bitmap was processed and the image cache is available, then add the processed
             // bitmap to the cache for future use. Note we don't check if the task was cancelled
-            // here, if it was, and the thread is still running, we may as well add the processed
-            // bitmap to our cache as it might be used again in the future
+            // here, if it was, we may as well add the processed bitmap to our cache as it might
+            // be used again in the future. The JPEG compress of the disk cache runs in the disk
+            // stage, it doesn't hold up the decodes.
             if (bitmap != null && mImageCache != null) {
-                mImageCache.addBitmapToDiskCache(dataString, bitmap);
-                mImageCache.addBitmapToMenCache(dataString, bitmap);
+                mImageCache.addBitmapToMenCache(mmCacheKey, bitmap);
+                LoadExecutor.getDiskExecutor().execute(new DiskCacheWriteTask(mmCacheKey, bitmap));
             }
+            finish(bitmap);
+        }
+
+        /**
+         * Whether this task has not been cancelled by another thread and one of the ImageViews
+         * attached to this task is still bound back to this task and our "exit early" flag is
+         * not set.
+         */
+        private boolean shouldRun() {
+            return !isCancelled() && hasAttachedImageView() && !mExitTasksEarly;
+        }
 
-            return bitmap;
+        private void moveTo(int stage, LoadExecutor executor) {
+            mmStage = stage;
+            executor.execute(this);
+        }
+
+        /**
+         * Hand the result to the UI thread, unless the task has been cancelled. Results are
+         * applied in batches at the start of a frame, see {@link FrameDispatcher}.
+         */
+        private void finish(final Bitmap bitmap) {
+            synchronized (this) {
+                if (mmDone) {
+                    return;
+                }
+                mmDone = true;
+            }
+            removeInFlight(this);
+            FrameDispatcher.getInstance().post(new Runnable() {
+                @Override
+                public void run() {
+                    onPostExecute(bitmap);
+                }
+            });
         }
 
         /**
          * Once the image is processed, associates it to the imageView
          */
-        @Override
-        protected void onPostExecute(Bitmap bitmap) {
+        private void onPostExecute(Bitmap bitmap) {
             // if cancel was called on this task or the "exit early" flag is set then we're done
             if (isCancelled() || mExitTasksEarly) {
                 return;
             }
 
-            final ImageView imageView = getAttachedImageView();
-            if (mmListener != null) {
-                mmListener.onLoaded(imageView, bitmap);
-            }
-            if (imageView != null) {
-                setImageBitmap(imageView, bitmap, mmListener);
+            for (Target target = getTargets(); target != null; target = target.mmNext) {
+                final ImageView imageView = getAttachedImageView(target);
+                if (target.mmListener != null) {
+                    target.mmListener.onLoaded(imageView, bitmap);
+                }
+                if (imageView != null) {
+                    setImageBitmap(imageView, bitmap, target.mmListener);
+                }
             }
         }
 
-        @Override
-        protected void onCancelled() {
-            if (mmListener != null) {
-                mmListener.onCanceld(mmImageViewReference.get(), mmData);
+        private void onCancelled() {
+            for (Target target = getTargets(); target != null; target = target.mmNext) {
+                if (target.mmListener != null) {
+                    target.mmListener.onCanceld(target.mmImageViewReference.get(), mmData);
+                }
             }
-            super.onCancelled();
         }
 
         /**
-         * Returns the ImageView associated with this task as long as the ImageView's task still
-         * points to this task as well. Returns null otherwise.
+         * Returns the ImageView of the target as long as the ImageView's task still points to
+         * this task as well. Returns null otherwise.
          */
-        private ImageView getAttachedImageView() {
-            final ImageView imageView = mmImageViewReference.get();
+        private ImageView getAttachedImageView(Target target) {
+            final ImageView imageView = target.mmImageViewReference.get();
             final BitmapWorkerTask bitmapWorkerTask = getBitmapWorkerTask(imageView);
 
             if (this == bitmapWorkerTask) {
@@ -642,5 +1616,142 @@ public abstract class ImageWorker {
 
             return null;
         }
+
+        /**
+         * Whether an ImageView still points to this task. Checked by every stage, so it doesn't
+         * allocate.
+         */
+        private synchronized boolean hasAttachedImageView() {
+            for (Target target = mmTargets; target != null; target = target.mmNext) {
+                if (getAttachedImageView(target) != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Whether an ImageView which still points to this task is shown, true if none points
+         * to it (the load stops in its next check). Must be invoked on the UI thread.
+         */
+        private synchronized boolean isAttachedImageViewShown() {
+            boolean attached = false;
+            for (Target target = mmTargets; target != null; target = target.mmNext) {
+                final ImageView imageView = getAttachedImageView(target);
+                if (imageView != null) {
+                    if (imageView.isShown()) {
+                        return true;
+                    }
+                    attached = true;
+                }
+            }
+            return !attached;
+        }
+
+        /**
+         * The listener handed to a stage, null if no target listens. Unless a target listener
+         * wants progress updates, it is a {@link SimpleLoadListener} which doesn't override
+         * onProgressUpdate, so that the stage doesn't report progress to nobody (see
+         * {@link ProgressReporter#create(Object, LoadListener)}).
+         */
+        private synchronized LoadListener getListener() {
+            boolean listened = false;
+            for (Target target = mmTargets; target != null; target = target.mmNext) {
+                final LoadListener l = target.mmListener;
+                if (l != null) {
+                    if (ProgressReporter.needProgress(l)) {
+                        if (mmProgressListener == null) {
+                            mmProgressListener = new ProgressTargetsListener();
+                        }
+                        return mmProgressListener;
+                    }
+                    listened = true;
+                }
+            }
+            if (!listened) {
+                return null;
+            }
+            if (mmListener == null) {
+                mmListener = new TargetsListener();
+            }
+            return mmListener;
+        }
+
+        /**
+         * Report an error of a stage to the target listeners.
+         */
+        private void reportError(Object error) {
+            final LoadListener l = getListener();
+            if (l != null) {
+                l.onError(mmData, error);
+            }
+        }
+
+        /**
+         * Forwards the callbacks of the stages to the listeners of all the targets attached at
+         * the time of the callback, except the progress updates.
+         */
+        private class TargetsListener extends SimpleLoadListener {
+
+            @Override
+            public void onStart(ImageView imageView, Object data) {
+                for (Target target = getTargets(); target != null; target = target.mmNext) {
+                    if (target.mmListener != null) {
+                        target.mmListener.onStart(target.mmImageViewReference.get(), data);
+                    }
+                }
+            }
+
+            @Override
+            public void onError(Object data, Object errorMsg) {
+                for (Target target = getTargets(); target != null; target = target.mmNext) {
+                    if (target.mmListener != null) {
+                        target.mmListener.onError(data, errorMsg);
+                    }
+                }
+            }
+
+            @Override
+            public void onLoaded(ImageView imageView, Bitmap bitmap) {
+                for (Target target = getTargets(); target != null; target = target.mmNext) {
+                    if (target.mmListener != null) {
+                        target.mmListener.onLoaded(target.mmImageViewReference.get(), bitmap);
+                    }
+                }
+            }
+
+            @Override
+            public void onSet(ImageView imageView, Bitmap bitmap) {
+                for (Target target = getTargets(); target != null; target = target.mmNext) {
+                    if (target.mmListener != null) {
+                        target.mmListener.onSet(target.mmImageViewReference.get(), bitmap);
+                    }
+                }
+            }
+
+            @Override
+            public void onCanceld(ImageView imageView, Object data) {
+                for (Target target = getTargets(); target != null; target = target.mmNext) {
+                    if (target.mmListener != null) {
+                        target.mmListener.onCanceld(target.mmImageViewReference.get(), data);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Forwards the progress updates as well.
+         */
+        private class ProgressTargetsListener extends TargetsListener {
+
+            @Override
+            public void onProgressUpdate(Object url, long total, long downloaded) {
+                for (Target target = getTargets(); target != null; target = target.mmNext) {
+                    if (target.mmListener != null) {
+                        target.mmListener.onProgressUpdate(url, total, downloaded);
+                    }
+                }
+            }
+        }
     }
 }
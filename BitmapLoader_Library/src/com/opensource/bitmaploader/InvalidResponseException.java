@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a response is rejected by a {@link ResponseValidator}, like an HTML error page
+ * sent with 200 or an image larger than allowed. Another attempt would get the same response,
+ * so it is not retried.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class InvalidResponseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidResponseException(String message) {
+        super(message);
+    }
+}
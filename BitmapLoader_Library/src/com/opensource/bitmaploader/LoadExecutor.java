@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Process;
+
+/**
+ * The thread pools of the stages of a load: disk and decode.<br>
+ * <p>A load moves from one stage to the next instead of holding one thread from start to end,
+ * so a load found in the disk cache never waits behind loads which are downloading, and
+ * downloads don't keep the CPU idle. Between the two, a load which needs the network holds no
+ * thread of these pools: its download is queued in the {@link NetworkScheduler}, which hands the
+ * result back to move the load to the decode stage. The disk pool is sized for threads which
+ * block on I/O, the decode pool to the number of CPU cores.<br>
+ * <p>Each pool runs its tasks by {@link Priority}, and among the tasks of the same priority the
+ * most recent load first. A cancelled load is taken out of its queue at once. The
+ * {@link Priority#PREFETCH} and {@link Priority#BACKGROUND} tasks wait in bounded queues of
+ * their own, behind every task of a higher priority. When {@link #getMaxQueueSize()} of them
+ * wait, the oldest of the lowest priority is dropped for a new one. Tasks of higher priorities
+ * are never dropped, an image on screen must not stay blank, so the bound only holds back the
+ * work nobody waits for.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class LoadExecutor {
+    public static final int DISK_POOL_SIZE = 2;
+    public static final int DECODE_POOL_SIZE = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 64;
+
+    private static final int KEEP_ALIVE = 10; // s
+
+    private static final AtomicLong sSequence = new AtomicLong();
+    // Guards the priority of the tasks and the queues they wait in
+    private static final Object sLock = new Object();
+
+    // Higher priority first, then the most recent first
+    private static final Comparator<Runnable> sPriorityComparator = new Comparator<Runnable>() {
+        public int compare(Runnable lhs, Runnable rhs) {
+            final Task l = (Task) lhs;
+            final Task r = (Task) rhs;
+            final int byPriority = l.mPriority.compareTo(r.mPriority);
+            if (byPriority != 0) {
+                return byPriority;
+            }
+            return l.mSequence > r.mSequence ? -1 : (l.mSequence < r.mSequence ? 1 : 0);
+        }
+    };
+
+    // Created after sSequence, their slots are tasks too
+    private static final LoadExecutor sDiskExecutor = new LoadExecutor("disk", DISK_POOL_SIZE);
+    private static final LoadExecutor sDecodeExecutor = new LoadExecutor("decode", DECODE_POOL_SIZE);
+
+    private final PriorityBlockingQueue<Runnable> mQueue;
+    private final ThreadPoolExecutor mExecutor;
+    // The droppable tasks, oldest first, guarded by sLock. mQueue holds a slot for each of them.
+    private final LinkedList<Task> mPrefetchTasks = new LinkedList<Task>();
+    private final LinkedList<Task> mBackgroundTasks = new LinkedList<Task>();
+    private final Task mSlot = new DroppableSlot();
+    private int mWaitingCount = 0; // guarded by sLock
+    private volatile int mMaxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    LoadExecutor(final String name, int poolSize) {
+        mQueue = new PriorityBlockingQueue<Runnable>(11, sPriorityComparator);
+        // The queue is unbounded, so the pool never grows beyond its core size
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE, TimeUnit.SECONDS,
+                mQueue, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "LoadExecutor-" + name + " #" + mCount.getAndIncrement());
+            }
+        });
+    }
+
+    /**
+     * Get the pool of the disk stage, which reads the disk caches.
+     *
+     * @return the disk pool
+     */
+    public static LoadExecutor getDiskExecutor() {
+        return sDiskExecutor;
+    }
+
+    /**
+     * Get the pool of the decode stage, one thread per CPU core.
+     *
+     * @return the decode pool
+     */
+    public static LoadExecutor getDecodeExecutor() {
+        return sDecodeExecutor;
+    }
+
+    /**
+     * Queue a task in this pool. If it is a prefetch or background task and their queue is
+     * full, the task or a queued task of a lower priority may be dropped, see
+     * {@link Task#onDropped()}.
+     *
+     * @param task The task
+     */
+    public void execute(Task task) {
+        Task dropped = null;
+        final boolean droppable;
+        synchronized (sLock) {
+            droppable = isDroppable(task.mPriority);
+            if (droppable && mPrefetchTasks.size() + mBackgroundTasks.size() >= mMaxQueueSize) {
+                if (mBackgroundTasks.isEmpty() && task.mPriority == Priority.BACKGROUND) {
+                    // Less important than anything queued, it goes first
+                    dropped = task;
+                } else {
+                    dropped = (mBackgroundTasks.isEmpty() ? mPrefetchTasks : mBackgroundTasks).removeFirst();
+                    dropped.mQueuedIn = null;
+                    mWaitingCount--;
+                }
+            }
+            if (dropped != task) {
+                if (droppable) {
+                    getDroppableTasks(task.mPriority).addLast(task);
+                }
+                task.mQueuedIn = this;
+                mWaitingCount++;
+            }
+        }
+        if (dropped != null) {
+            mDroppedCount.incrementAndGet();
+            dropped.onDropped();
+        }
+        if (dropped != task) {
+            mExecutor.execute(droppable ? mSlot : task);
+        }
+    }
+
+    private static boolean isDroppable(Priority priority) {
+        return priority.compareTo(Priority.PREFETCH) >= 0;
+    }
+
+    /**
+     * Get the queue of the droppable tasks of a priority. Must hold sLock.
+     */
+    private LinkedList<Task> getDroppableTasks(Priority priority) {
+        return priority == Priority.PREFETCH ? mPrefetchTasks : mBackgroundTasks;
+    }
+
+    /**
+     * Take a task out of the queue it waits in, by its current priority. Must hold sLock.
+     *
+     * @return true if the task was waiting
+     */
+    private boolean remove(Task task) {
+        if (isDroppable(task.mPriority)) {
+            return getDroppableTasks(task.mPriority).remove(task);
+        }
+        return mQueue.remove(task);
+    }
+
+    /**
+     * Put back a task taken out by {@link #remove(Task)}, by its new priority. Must hold sLock.
+     */
+    private void offer(Task task, Priority oldPriority) {
+        if (isDroppable(task.mPriority)) {
+            getDroppableTasks(task.mPriority).addLast(task);
+            if (!isDroppable(oldPriority)) {
+                mQueue.offer(mSlot);
+            }
+        } else {
+            // A droppable task leaves its slot behind, which then runs nothing
+            mQueue.offer(task);
+        }
+    }
+
+    /**
+     * Get the number of tasks waiting in this pool.
+     *
+     * @return the queue size
+     */
+    public int getQueueSize() {
+        synchronized (sLock) {
+            return mWaitingCount;
+        }
+    }
+
+    /**
+     * Get the number of prefetch and background tasks beyond which they are dropped.
+     *
+     * @return the max queue size
+     */
+    public int getMaxQueueSize() {
+        return mMaxQueueSize;
+    }
+
+    /**
+     * Set the number of prefetch and background tasks beyond which they are dropped,
+     * {@link #DEFAULT_MAX_QUEUE_SIZE} by default.
+     *
+     * @param maxQueueSize The max queue size
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        if (maxQueueSize < 1) {
+            throw new IllegalArgumentException("maxQueueSize must be positive");
+        }
+        mMaxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Get the number of tasks dropped because the queue was full, since the process started.
+     *
+     * @return the number of dropped tasks
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * A task of a load stage. The task keeps its priority and its place in the order of the
+     * loads from one stage to the next.
+     */
+    public static abstract class Task implements Runnable {
+        // Both only change while the task is out of any queue, guarded by sLock
+        private Priority mPriority = Priority.VISIBLE;
+        private final long mSequence = sSequence.incrementAndGet();
+        private LoadExecutor mQueuedIn;
+
+        /**
+         * Get the priority of this task.
+         *
+         * @return the priority
+         */
+        public final Priority getPriority() {
+            synchronized (sLock) {
+                return mPriority;
+            }
+        }
+
+        /**
+         * Set the priority of this task. A task which is waiting in a pool moves in its queue.
+         *
+         * @param priority The priority
+         */
+        public final void setPriority(Priority priority) {
+            if (priority == null) {
+                throw new NullPointerException("priority == null");
+            }
+            synchronized (sLock) {
+                final Priority oldPriority = mPriority;
+                if (oldPriority == priority) {
+                    return;
+                }
+                if (mQueuedIn != null && mQueuedIn.remove(this)) {
+                    // Take it out first, the queue doesn't notice an element changing its order
+                    mPriority = priority;
+                    mQueuedIn.offer(this, oldPriority);
+                } else {
+                    mPriority = priority;
+                }
+            }
+        }
+
+        /**
+         * Take this task out of the queue it waits in, for example because it has been cancelled.
+         *
+         * @return true if the task was waiting in a queue
+         */
+        public final boolean dequeue() {
+            synchronized (sLock) {
+                if (mQueuedIn != null && mQueuedIn.remove(this)) {
+                    mQueuedIn.mWaitingCount--;
+                    mQueuedIn = null;
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public final void run() {
+            synchronized (sLock) {
+                if (mQueuedIn != null) {
+                    mQueuedIn.mWaitingCount--;
+                    mQueuedIn = null;
+                }
+            }
+            runStage();
+        }
+
+        /**
+         * Called when this task has been dropped from a full queue, instead of
+         * {@link #runStage()}. Called in the thread which queued another task.
+         */
+        protected void onDropped() {
+        }
+
+        /**
+         * Run the work of the stage this task is queued for. The work may queue the task in the
+         * pool of its next stage.
+         */
+        protected abstract void runStage();
+    }
+
+    /**
+     * Stands in the queue of the pool for a droppable task, and runs the most recent one of
+     * the highest priority when a thread takes it. It runs nothing if that task has been
+     * dropped or cancelled meanwhile.
+     */
+    private class DroppableSlot extends Task {
+
+        DroppableSlot() {
+            // Behind every task which is not droppable
+            super.mPriority = Priority.PREFETCH;
+        }
+
+        @Override
+        protected void runStage() {
+            final Task task;
+            synchronized (sLock) {
+                if (!mPrefetchTasks.isEmpty()) {
+                    task = mPrefetchTasks.removeLast();
+                } else if (!mBackgroundTasks.isEmpty()) {
+                    task = mBackgroundTasks.removeLast();
+                } else {
+                    task = null;
+                }
+            }
+            if (task != null) {
+                task.run();
+            }
+        }
+    }
+}
@@ -37,7 +37,9 @@ public interface LoadListener {
 
     /**
      * Show download progress.<br>
-     * <p>This call back method only for download bitmap from the Internet.
+     * <p>This call back method only for download bitmap from the Internet. It is called on the
+     * main thread, throttled by time and by percentage steps (see {@link ProgressReporter}).
+     * Extend {@link SimpleLoadListener} and don't override it to get no progress at all.
      *
      * @param url        The URL of the bitmap.
      * @param total      The total size of the downloading bitmap.<br>
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import android.os.SystemClock;
+
+/**
+ * A bounded cache of requests which failed recently, so that binding a broken image again (for
+ * example when a list is refreshed) shows the failed image at once instead of downloading and
+ * decoding it again.<br>
+ * <p>An entry expires after a time which depends on the class of the failure: a client error
+ * (4xx) is unlikely to change soon, a server error (5xx) may be gone in a moment, and a file
+ * which can't be decoded stays broken until the server changes it. Connection errors are not
+ * cached, see {@link CircuitBreaker}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class NegativeCache {
+
+    public static final int FAILURE_CLIENT_ERROR = 0;
+    public static final int FAILURE_SERVER_ERROR = 1;
+    public static final int FAILURE_UNDECODABLE = 2;
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+    public static final long DEFAULT_CLIENT_ERROR_TTL = 10 * 60 * 1000; // 10 minutes
+    public static final long DEFAULT_SERVER_ERROR_TTL = 30 * 1000; // 30s
+    public static final long DEFAULT_UNDECODABLE_TTL = 60 * 60 * 1000; // 1 hour
+
+    // Expiry time (uptime) by request key
+    private final LruCache<String, Long> mEntries;
+    private final long[] mTtls = new long[]{
+            DEFAULT_CLIENT_ERROR_TTL, DEFAULT_SERVER_ERROR_TTL, DEFAULT_UNDECODABLE_TTL,
+    };
+
+    /**
+     * Create a negative cache with the default size.
+     */
+    public NegativeCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a negative cache.
+     *
+     * @param maxSize The max number of failed requests remembered
+     */
+    public NegativeCache(int maxSize) {
+        mEntries = new LruCache<String, Long>(maxSize);
+    }
+
+    /**
+     * Set how long failures of a class are remembered.
+     *
+     * @param failure One of {@link #FAILURE_CLIENT_ERROR}, {@link #FAILURE_SERVER_ERROR} and
+     *                {@link #FAILURE_UNDECODABLE}
+     * @param ttl     The time in milliseconds, 0 not to remember them
+     */
+    public void setTtl(int failure, long ttl) {
+        synchronized (mTtls) {
+            mTtls[failure] = Math.max(ttl, 0);
+        }
+    }
+
+    /**
+     * Remember a failed request.
+     *
+     * @param key     The key of the request
+     * @param failure The class of the failure, one of {@link #FAILURE_CLIENT_ERROR},
+     *                {@link #FAILURE_SERVER_ERROR} and {@link #FAILURE_UNDECODABLE}
+     */
+    public void put(String key, int failure) {
+        final long ttl;
+        synchronized (mTtls) {
+            ttl = mTtls[failure];
+        }
+        if (key == null || ttl <= 0) {
+            return;
+        }
+        mEntries.put(key, SystemClock.uptimeMillis() + ttl);
+    }
+
+    /**
+     * Remember a failed download, if the class of the failure should be remembered.
+     *
+     * @param key The key of the request
+     * @param e   The failure
+     */
+    public void put(String key, HttpStatusException e) {
+        if (e.isClientError()) {
+            put(key, FAILURE_CLIENT_ERROR);
+        } else if (e.isServerError()) {
+            put(key, FAILURE_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Whether a request failed recently.
+     *
+     * @param key The key of the request
+     * @return true if the request failed and the failure has not expired
+     */
+    public boolean contains(String key) {
+        if (key == null) {
+            return false;
+        }
+        final Long expires = mEntries.get(key);
+        if (expires == null) {
+            return false;
+        }
+        if (expires <= SystemClock.uptimeMillis()) {
+            mEntries.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forget a failed request, so that the next request tries again.
+     *
+     * @param key The key of the request
+     */
+    public void remove(String key) {
+        if (key != null) {
+            mEntries.remove(key);
+        }
+    }
+
+    /**
+     * Forget all failed requests.
+     */
+    public void clear() {
+        mEntries.evictAll();
+    }
+}
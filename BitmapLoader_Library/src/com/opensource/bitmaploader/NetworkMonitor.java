@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.util.Log;
+
+/**
+ * Keeps the connectivity state in memory, so that checking it costs no call to
+ * {@link ConnectivityManager} (an IPC to the system). The state is read once and then updated
+ * by a receiver of {@link ConnectivityManager#CONNECTIVITY_ACTION}, registered on the application
+ * context for the life of the process.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class NetworkMonitor extends BroadcastReceiver {
+    private static final String TAG = "NetworkMonitor";
+
+    private static NetworkMonitor sInstance = null;
+
+    private final Context mContext;
+    private volatile boolean mConnected;
+
+    private NetworkMonitor(Context context) {
+        mContext = context;
+        mConnected = Utils.isNetworkConnected(context);
+    }
+
+    /**
+     * Get the monitor, registering it the first time.
+     *
+     * @param context The context to use
+     * @return the monitor
+     */
+    public static NetworkMonitor getInstance(Context context) {
+        synchronized (NetworkMonitor.class) {
+            if (sInstance == null) {
+                final Context appContext = context.getApplicationContext() == null
+                        ? context : context.getApplicationContext();
+                sInstance = new NetworkMonitor(appContext);
+                appContext.registerReceiver(sInstance,
+                        new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Whether there is a network connection, as of the last connectivity change.
+     *
+     * @return true if connected or connecting
+     */
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
+            return;
+        }
+        mConnected = Utils.isNetworkConnected(mContext);
+        if (ImageWorker.DEBUG) {
+            Log.d(TAG, "Connectivity changed, connected: " + mConnected);
+        }
+    }
+}
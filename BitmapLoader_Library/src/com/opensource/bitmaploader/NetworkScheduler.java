@@ -0,0 +1,572 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.net.Uri;
+import android.os.Process;
+
+/**
+ * Runs network requests with a limit of concurrent requests in total and per host.<br>
+ * <p>Requests which can't run yet wait in a queue per host, and the hosts take turns when a
+ * request finishes, so a slow host which has used up its share of connections doesn't hold up
+ * the requests of other hosts. The queue depth of each host can be read to find slow origins.<br>
+ * <p>A request queued with a {@link ResultCallback} doesn't hold the thread of its caller while it
+ * waits for a turn, the result is handed to the callback by the network thread.<br>
+ * <p>Background requests (like prefetches) wait in a separate queue. One of them runs only when
+ * no other request is waiting, so they never delay the requests of visible images.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class NetworkScheduler {
+    public static final int DEFAULT_MAX_REQUESTS = 6;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 2;
+    public static final int MAX_BACKGROUND_REQUESTS = 1;
+
+    private static final int KEEP_ALIVE = 30; // s
+
+    private final int mMaxRequests;
+    private final int mMaxRequestsPerHost;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    // All state below is guarded by mHosts
+    private final Map<String, HostQueue> mHosts = new HashMap<String, HostQueue>();
+    // Hosts with waiting requests, in the order they get their next turn
+    private final LinkedList<HostQueue> mTurns = new LinkedList<HostQueue>();
+    private int mRunning = 0;
+    private final LinkedList<BackgroundRequest> mBackground = new LinkedList<BackgroundRequest>();
+    private int mRunningBackground = 0;
+
+    /**
+     * Create a scheduler with the default limits.
+     */
+    public NetworkScheduler() {
+        this(DEFAULT_MAX_REQUESTS, DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * Create a scheduler.
+     *
+     * @param maxRequests        The max requests running at the same time
+     * @param maxRequestsPerHost The max requests running at the same time to one host
+     */
+    public NetworkScheduler(int maxRequests, int maxRequestsPerHost) {
+        if (maxRequests < 1 || maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        mMaxRequests = maxRequests;
+        mMaxRequestsPerHost = Math.min(maxRequestsPerHost, maxRequests);
+        // The scheduler bounds the concurrency itself, the pool only keeps idle threads
+        mExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "NetworkScheduler #" + mCount.getAndIncrement());
+            }
+        });
+    }
+
+    /**
+     * Run a request when its host gets a turn, and wait for the result.
+     *
+     * @param url      The URL of the request, which gives its host
+     * @param callable The request
+     * @return The result of the request
+     * @throws InterruptedException If the current thread was interrupted while waiting, the
+     *                              request is cancelled then.
+     * @throws ExecutionException   If the request threw a checked exception, or was cancelled.
+     */
+    public <V> V execute(String url, Callable<V> callable) throws InterruptedException, ExecutionException {
+        return execute(url, callable, false);
+    }
+
+    /**
+     * Run a request when its host gets a turn, and wait for the result.
+     *
+     * @param url        The URL of the request, which gives its host
+     * @param callable   The request
+     * @param background Whether the request runs only when no other request is waiting
+     * @return The result of the request
+     * @throws InterruptedException If the current thread was interrupted while waiting, the
+     *                              request is cancelled then.
+     * @throws ExecutionException   If the request threw a checked exception, or was cancelled.
+     */
+    public <V> V execute(String url, Callable<V> callable, boolean background)
+            throws InterruptedException, ExecutionException {
+        return execute(url, callable, background, null);
+    }
+
+    /**
+     * Run a request when its host gets a turn, and wait for the result.
+     *
+     * @param url        The URL of the request, which gives its host
+     * @param callable   The request
+     * @param background Whether the request runs only when no other request is waiting
+     * @param signal     Cancelling it drops the request if it is still waiting, and stops the
+     *                   wait at once if it is running. A running request should watch the signal
+     *                   itself to stop early. May be null.
+     * @return The result of the request
+     * @throws InterruptedException If the current thread was interrupted while waiting, the
+     *                              request is cancelled then.
+     * @throws ExecutionException   If the request threw a checked exception, or was cancelled.
+     */
+    public <V> V execute(String url, Callable<V> callable, boolean background, CancellationSignal signal)
+            throws InterruptedException, ExecutionException {
+        final FutureTask<V> task = submit(url, callable, background);
+        final CancellationSignal.OnCancelListener listener = signal == null ? null
+                : new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                // A waiting request never starts, a running one is not interrupted
+                if (task.cancel(false)) {
+                    synchronized (mHosts) {
+                        purgeCancelled();
+                    }
+                }
+            }
+        };
+        if (signal != null) {
+            signal.addOnCancelListener(listener);
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            throw e;
+        } catch (CancellationException e) {
+            throw new ExecutionException(e);
+        } catch (ExecutionException e) {
+            // Unchecked exceptions and errors go to the caller as they are
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } finally {
+            if (signal != null) {
+                signal.removeOnCancelListener(listener);
+            }
+        }
+    }
+
+    /**
+     * Queue a request to run when its host gets a turn.
+     *
+     * @param url      The URL of the request, which gives its host
+     * @param callable The request
+     * @return The future of the request, cancel it to drop a request which has not started
+     */
+    public <V> FutureTask<V> submit(String url, Callable<V> callable) {
+        return submit(url, callable, false);
+    }
+
+    /**
+     * Queue a request to run when its host gets a turn.
+     *
+     * @param url        The URL of the request, which gives its host
+     * @param callable   The request
+     * @param background Whether the request runs only when no other request is waiting
+     * @return The future of the request, cancel it to drop a request which has not started
+     */
+    public <V> FutureTask<V> submit(String url, Callable<V> callable, boolean background) {
+        final FutureTask<V> task = new FutureTask<V>(callable);
+        queue(url, task, background);
+        return task;
+    }
+
+    /**
+     * Queue a request to run when its host gets a turn, without waiting for it. The thread of
+     * the caller is free at once, the callback gets the result in the network thread which ran
+     * the request.
+     *
+     * @param url        The URL of the request, which gives its host
+     * @param callable   The request
+     * @param background Whether the request runs only when no other request is waiting
+     * @param signal     Cancelling it drops the request if it has not started, the callback then
+     *                   gets a {@link CancellationException} in the thread which cancelled it. A
+     *                   request which has started always ends with its own result, it should
+     *                   watch the signal itself to stop early. May be null.
+     * @param callback   Gets the result of the request
+     */
+    public <V> void execute(String url, Callable<V> callable, boolean background,
+                            CancellationSignal signal, ResultCallback<? super V> callback) {
+        final CallbackTask<V> task = new CallbackTask<V>(url, callable, signal, callback);
+        if (signal != null) {
+            // Before the request is queued, so that the listener is removed when it is done
+            signal.addOnCancelListener(task);
+            if (task.isDone()) {
+                // Already cancelled
+                return;
+            }
+        }
+        queue(url, task, background);
+    }
+
+    private void queue(String url, FutureTask<?> task, boolean background) {
+        final String host = getHost(url);
+        synchronized (mHosts) {
+            if (background) {
+                mBackground.offer(new BackgroundRequest(url, host, task));
+            } else {
+                enqueue(getHostQueue(host), task);
+            }
+            promote();
+        }
+    }
+
+    /**
+     * Move the waiting background requests of a URL to the queue of their host, because a
+     * visible image now needs the URL.
+     *
+     * @param url The URL
+     */
+    public void prioritize(String url) {
+        synchronized (mHosts) {
+            if (mBackground.isEmpty()) {
+                return;
+            }
+            final Iterator<BackgroundRequest> requests = mBackground.iterator();
+            while (requests.hasNext()) {
+                final BackgroundRequest request = requests.next();
+                if (request.mmUrl.equals(url)) {
+                    requests.remove();
+                    enqueue(getHostQueue(request.mmHost), request.mmTask);
+                }
+            }
+            promote();
+        }
+    }
+
+    /**
+     * Must hold mHosts.
+     */
+    private HostQueue getHostQueue(String host) {
+        HostQueue queue = mHosts.get(host);
+        if (queue == null) {
+            queue = new HostQueue(host);
+            mHosts.put(host, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Must hold mHosts.
+     */
+    private void enqueue(HostQueue queue, FutureTask<?> task) {
+        queue.mmWaiting.offer(task);
+        if (queue.mmWaiting.size() == 1) {
+            mTurns.offer(queue);
+        }
+    }
+
+    /**
+     * Get the number of requests waiting for a host.
+     *
+     * @param host The host
+     * @return the number of waiting requests
+     */
+    public int getQueueDepth(String host) {
+        synchronized (mHosts) {
+            final HostQueue queue = mHosts.get(host == null ? "" : host.toLowerCase(Locale.US));
+            return queue == null ? 0 : queue.mmWaiting.size();
+        }
+    }
+
+    /**
+     * Get the number of requests running to a host.
+     *
+     * @param host The host
+     * @return the number of running requests
+     */
+    public int getRunningCount(String host) {
+        synchronized (mHosts) {
+            final HostQueue queue = mHosts.get(host == null ? "" : host.toLowerCase(Locale.US));
+            return queue == null ? 0 : queue.mmRunning;
+        }
+    }
+
+    /**
+     * Get the number of background requests waiting.
+     *
+     * @return the number of waiting background requests
+     */
+    public int getBackgroundQueueDepth() {
+        synchronized (mHosts) {
+            return mBackground.size();
+        }
+    }
+
+    /**
+     * Get the number of waiting requests of every host which has some.
+     *
+     * @return the queue depths by host
+     */
+    public Map<String, Integer> getQueueDepths() {
+        final Map<String, Integer> depths = new HashMap<String, Integer>();
+        synchronized (mHosts) {
+            for (HostQueue queue : mHosts.values()) {
+                if (!queue.mmWaiting.isEmpty()) {
+                    depths.put(queue.mmHost, queue.mmWaiting.size());
+                }
+            }
+        }
+        return depths;
+    }
+
+    /**
+     * Start waiting requests while there is room, one per host in turn. Must hold mHosts.
+     */
+    private void promote() {
+        int skipped = 0;
+        while (mRunning < mMaxRequests && !mTurns.isEmpty() && skipped < mTurns.size()) {
+            final HostQueue queue = mTurns.poll();
+            if (queue.mmRunning >= mMaxRequestsPerHost) {
+                // This host is busy, keep its turn for when one of its requests finishes
+                mTurns.offer(queue);
+                skipped++;
+                continue;
+            }
+            FutureTask<?> task = queue.mmWaiting.poll();
+            while (task != null && task.isDone()) {
+                // Cancelled while waiting
+                task = queue.mmWaiting.poll();
+            }
+            if (task != null) {
+                dispatch(queue, task, false);
+                skipped = 0;
+            }
+            if (!queue.mmWaiting.isEmpty()) {
+                mTurns.offer(queue);
+            } else if (queue.mmRunning == 0) {
+                mHosts.remove(queue.mmHost);
+            }
+        }
+        if (!mTurns.isEmpty() || mBackground.isEmpty()) {
+            // Background requests only run when nothing else waits
+            return;
+        }
+        final Iterator<BackgroundRequest> requests = mBackground.iterator();
+        while (requests.hasNext() && mRunning < mMaxRequests
+                && mRunningBackground < MAX_BACKGROUND_REQUESTS) {
+            final BackgroundRequest request = requests.next();
+            if (request.mmTask.isDone()) {
+                requests.remove();
+                continue;
+            }
+            final HostQueue queue = mHosts.get(request.mmHost);
+            if (queue == null || queue.mmRunning < mMaxRequestsPerHost) {
+                requests.remove();
+                dispatch(getHostQueue(request.mmHost), request.mmTask, true);
+            }
+        }
+    }
+
+    /**
+     * Must hold mHosts.
+     */
+    private void dispatch(HostQueue queue, FutureTask<?> task, boolean background) {
+        queue.mmRunning++;
+        mRunning++;
+        if (background) {
+            mRunningBackground++;
+        }
+        mExecutor.execute(new Dispatch(queue, task, background));
+    }
+
+    private void finished(HostQueue queue, boolean background) {
+        synchronized (mHosts) {
+            queue.mmRunning--;
+            mRunning--;
+            if (background) {
+                mRunningBackground--;
+            }
+            if (queue.mmRunning == 0 && queue.mmWaiting.isEmpty()) {
+                mHosts.remove(queue.mmHost);
+            }
+            purgeCancelled();
+            promote();
+        }
+    }
+
+    /**
+     * Drop the cancelled waiting requests, and the hosts which have no request left. Must hold
+     * mHosts.
+     */
+    private void purgeCancelled() {
+        final Iterator<BackgroundRequest> requests = mBackground.iterator();
+        while (requests.hasNext()) {
+            if (requests.next().mmTask.isDone()) {
+                requests.remove();
+            }
+        }
+        final Iterator<HostQueue> turns = mTurns.iterator();
+        while (turns.hasNext()) {
+            final HostQueue queue = turns.next();
+            final Iterator<FutureTask<?>> waiting = queue.mmWaiting.iterator();
+            while (waiting.hasNext()) {
+                if (waiting.next().isDone()) {
+                    waiting.remove();
+                }
+            }
+            if (queue.mmWaiting.isEmpty()) {
+                turns.remove();
+                if (queue.mmRunning == 0) {
+                    mHosts.remove(queue.mmHost);
+                }
+            }
+        }
+    }
+
+    private static String getHost(String url) {
+        final String host = url == null ? null : Uri.parse(url).getHost();
+        return host == null ? "" : host.toLowerCase(Locale.US);
+    }
+
+    private static class HostQueue {
+        private final String mmHost;
+        private final LinkedList<FutureTask<?>> mmWaiting = new LinkedList<FutureTask<?>>();
+        private int mmRunning = 0;
+
+        public HostQueue(String host) {
+            mmHost = host;
+        }
+    }
+
+    private static class BackgroundRequest {
+        private final String mmUrl;
+        private final String mmHost;
+        private final FutureTask<?> mmTask;
+
+        public BackgroundRequest(String url, String host, FutureTask<?> task) {
+            mmUrl = url;
+            mmHost = host;
+            mmTask = task;
+        }
+    }
+
+    /**
+     * A request which hands its result to a callback. It is either run or dropped by its signal,
+     * never both, so a request which has started is never abandoned with a result nobody gets.
+     */
+    private class CallbackTask<V> extends FutureTask<V>
+            implements CancellationSignal.OnCancelListener {
+        private final String mmUrl;
+        private final CancellationSignal mmSignal;
+        private final ResultCallback<? super V> mmCallback;
+        private final AtomicBoolean mmClaimed = new AtomicBoolean(false);
+
+        public CallbackTask(String url, Callable<V> callable, CancellationSignal signal,
+                            ResultCallback<? super V> callback) {
+            super(callable);
+            mmUrl = url;
+            mmSignal = signal;
+            mmCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            if (mmClaimed.compareAndSet(false, true)) {
+                super.run();
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            if (mmClaimed.compareAndSet(false, true)) {
+                cancel(false);
+                synchronized (mHosts) {
+                    purgeCancelled();
+                }
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (mmSignal != null) {
+                mmSignal.removeOnCancelListener(this);
+            }
+            if (isCancelled()) {
+                mmCallback.onError(new CancellationException("Request dropped - " + mmUrl));
+                return;
+            }
+            final V result;
+            try {
+                // Done, it doesn't block
+                result = get();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                mmCallback.onError(cause instanceof Exception ? (Exception) cause : e);
+                return;
+            } catch (InterruptedException e) {
+                mmCallback.onError(e);
+                return;
+            }
+            mmCallback.onResult(result);
+        }
+    }
+
+    private class Dispatch implements Runnable {
+        private final HostQueue mmQueue;
+        private final FutureTask<?> mmTask;
+        private final boolean mmBackground;
+
+        public Dispatch(HostQueue queue, FutureTask<?> task, boolean background) {
+            mmQueue = queue;
+            mmTask = task;
+            mmBackground = background;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mmTask.run();
+            } finally {
+                finished(mmQueue, mmBackground);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import android.widget.AbsListView;
+
+/**
+ * Pauses the work of an {@link ImageWorker} while a list is flinging, so that the cells which
+ * only flash past don't start a download and a decode each, and resumes it when the list
+ * settles. See {@link ImageWorker#setPauseWork(boolean)}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class PauseOnScrollListener implements AbsListView.OnScrollListener {
+
+    private final ImageWorker mImageWorker;
+    private final boolean mPauseOnTouchScroll;
+    private final AbsListView.OnScrollListener mOnScrollListener;
+
+    /**
+     * Create a listener which pauses on fling only.
+     *
+     * @param worker The worker loading the images of the list
+     */
+    public PauseOnScrollListener(ImageWorker worker) {
+        this(worker, false, null);
+    }
+
+    /**
+     * Create a listener.
+     *
+     * @param worker             The worker loading the images of the list
+     * @param pauseOnTouchScroll Whether to pause while the list is dragged as well
+     * @param l                  A listener to forward the scroll events to, may be null
+     */
+    public PauseOnScrollListener(ImageWorker worker, boolean pauseOnTouchScroll, AbsListView.OnScrollListener l) {
+        mImageWorker = worker;
+        mPauseOnTouchScroll = pauseOnTouchScroll;
+        mOnScrollListener = l;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        switch (scrollState) {
+            case SCROLL_STATE_FLING:
+                mImageWorker.setPauseWork(true);
+                break;
+            case SCROLL_STATE_TOUCH_SCROLL:
+                mImageWorker.setPauseWork(mPauseOnTouchScroll);
+                break;
+            default:
+                mImageWorker.setPauseWork(false);
+                break;
+        }
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        }
+    }
+}
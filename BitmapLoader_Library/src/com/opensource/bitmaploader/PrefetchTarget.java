@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+/**
+ * Where {@link ImageWorker#prefetch(java.util.Collection, PrefetchTarget)} puts the images.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public enum PrefetchTarget {
+    /** Fetch the sources to the disk only (the http cache for {@link ImageFetcher}), no decode. */
+    DISK,
+    /** Fetch the sources and decode the bitmaps into the memory and disk caches. */
+    MEMORY,
+}
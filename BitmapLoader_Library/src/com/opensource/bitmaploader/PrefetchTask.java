@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * A prefetch started by {@link ImageWorker#prefetch(java.util.Collection, PrefetchTarget, long)}.<br>
+ * <p>Prefetches run one at a time, one image after the other, in a single thread of the lowest
+ * priority, and their downloads run in the background queue of the {@link NetworkScheduler}, so
+ * they never hold up the images being shown.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class PrefetchTask implements Runnable {
+    private static final String TAG = "PrefetchTask";
+
+    private static final int KEEP_ALIVE = 10; // s
+
+    private static final ExecutorService sLane = new ThreadPoolExecutor(1, 1, KEEP_ALIVE,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                    r.run();
+                }
+            }, "PrefetchTask");
+        }
+    });
+
+    private final ImageWorker mWorker;
+    private final LinkedList<Object> mData; // not fetched yet, guarded by itself
+    private final PrefetchTarget mTarget;
+    private final long mByteBudget;
+
+    private final CancellationSignal mSignal = new CancellationSignal();
+    private volatile boolean mCancelled = false;
+    private volatile boolean mDone = false;
+    private volatile long mFetchedBytes = 0;
+    private volatile int mFetchedCount = 0;
+    private volatile long mStartTime = 0;
+    private volatile long mEndTime = 0;
+    private volatile long mPausedTime = 0;
+
+    PrefetchTask(ImageWorker worker, Collection<?> data, PrefetchTarget target, long byteBudget) {
+        mWorker = worker;
+        mData = new LinkedList<Object>(data);
+        mTarget = target;
+        mByteBudget = byteBudget;
+    }
+
+    void start() {
+        sLane.execute(this);
+    }
+
+    /**
+     * Queue more images after the ones not fetched yet.
+     *
+     * @param data The data of the images, in the order to fetch them
+     * @return false if the prefetch has finished or was cancelled, then start another one
+     */
+    boolean add(Collection<?> data) {
+        synchronized (mData) {
+            if (mDone || mCancelled) {
+                return false;
+            }
+            mData.addAll(data);
+            return true;
+        }
+    }
+
+    /**
+     * Get the number of images queued and not fetched yet.
+     *
+     * @return the number of images
+     */
+    int getPendingCount() {
+        synchronized (mData) {
+            return mData.size();
+        }
+    }
+
+    /**
+     * Drop images from the head of the queue, like the ones which have been scrolled past.
+     *
+     * @param count The number of images to keep at the tail of the queue
+     */
+    void keepPending(int count) {
+        synchronized (mData) {
+            while (mData.size() > count) {
+                mData.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Stop the prefetch. The download of the image being fetched is aborted, unless a load of
+     * an {@link android.widget.ImageView} waits for it too, and the others are not fetched.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mSignal.cancel();
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Whether the prefetch has finished, because every image was fetched, the byte budget was
+     * used up or it was cancelled.
+     *
+     * @return true if finished
+     */
+    public boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Get the number of bytes fetched so far, counted against the byte budget.
+     *
+     * @return the bytes fetched
+     */
+    public long getFetchedBytes() {
+        return mFetchedBytes;
+    }
+
+    /**
+     * Get the number of images fetched so far, not counting the ones which were already cached.
+     *
+     * @return the number of images
+     */
+    public int getFetchedCount() {
+        return mFetchedCount;
+    }
+
+    /**
+     * Get the time the prefetch has been running, not counting the time it waited while the
+     * work of the worker was paused.
+     *
+     * @return the time in milliseconds, 0 if it has not started
+     */
+    public long getElapsedTime() {
+        if (mStartTime == 0) {
+            return 0;
+        }
+        return (mEndTime == 0 ? SystemClock.uptimeMillis() : mEndTime) - mStartTime - mPausedTime;
+    }
+
+    @Override
+    public void run() {
+        mStartTime = SystemClock.uptimeMillis();
+        try {
+            while (true) {
+                // Like the loads, see ImageWorker#setPauseWork(boolean)
+                mPausedTime += mWorker.waitWhilePaused(mSignal);
+                final Object data;
+                synchronized (mData) {
+                    if (mCancelled || mWorker.isExitTasksEarly() || mFetchedBytes >= mByteBudget
+                            || mData.isEmpty()) {
+                        // Marked under the lock so that nothing is added after the last image
+                        finish();
+                        break;
+                    }
+                    data = mData.poll();
+                }
+                final long bytes = mWorker.prefetchData(data, mTarget, mSignal);
+                if (bytes > 0) {
+                    mFetchedBytes += bytes;
+                    mFetchedCount++;
+                }
+            }
+        } catch (OutOfMemoryError e) {
+            Log.e(TAG, "Prefetch stopped - " + e);
+        } finally {
+            synchronized (mData) {
+                if (!mDone) {
+                    finish();
+                }
+            }
+            if (ImageWorker.DEBUG) {
+                Log.d(TAG, "Prefetch done, " + mFetchedCount + " images, " + mFetchedBytes + " bytes");
+            }
+        }
+    }
+
+    private void finish() {
+        mEndTime = SystemClock.uptimeMillis();
+        mDone = true;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+/**
+ * The priority of a load, see {@link ImageWorker#setPriority(Priority)}.<br>
+ * <p>The loads of all workers share the same queues (see {@link LoadExecutor}): a load runs
+ * before every load of a lower priority, and among the loads of the same priority the most
+ * recent one runs first, so that after a fast scroll the cells now on screen don't wait behind
+ * the ones scrolled away.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public enum Priority {
+    /** The image the user is looking at, for example a full screen picture. */
+    IMMEDIATE,
+    /** An image on screen, for example a cell of a list. The default. */
+    VISIBLE,
+    /** An image which will probably be shown soon. */
+    PREFETCH,
+    /** Work nobody is waiting for. */
+    BACKGROUND,
+}
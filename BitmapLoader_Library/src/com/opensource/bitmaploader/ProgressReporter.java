@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Throttles the progress updates of a download and delivers them to
+ * {@link LoadListener#onProgressUpdate(Object, long, long)} on the main thread.<br>
+ * <p>An update is published at most every {@link #MIN_INTERVAL} milliseconds, and only when the
+ * progress has moved on by at least {@link #MIN_PERCENT_STEP} percent (or by
+ * {@link #MIN_BYTES_STEP} if the size is unknown). Updates published faster than the main thread
+ * handles them are merged, only the latest one is delivered. Listeners extending
+ * {@link SimpleLoadListener} without overriding onProgressUpdate get no update at all.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class ProgressReporter implements Runnable {
+
+    public static final long MIN_INTERVAL = 100; // ms
+    public static final int MIN_PERCENT_STEP = 1;
+    public static final long MIN_BYTES_STEP = 16 * 1024; // 16KB
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final Map<Class<?>, Boolean> sNeedProgress = new WeakHashMap<Class<?>, Boolean>();
+
+    private final Object mData;
+    private final LoadListener mListener;
+
+    private long mLastTime = 0;
+    private long mLastDownloaded = 0;
+
+    // Latest update waiting for the main thread, guarded by this
+    private long mPendingTotal;
+    private long mPendingDownloaded;
+    private boolean mPosted = false;
+
+    private ProgressReporter(Object data, LoadListener l) {
+        mData = data;
+        mListener = l;
+    }
+
+    /**
+     * Get a reporter for a download.
+     *
+     * @param data The data (URL) of the download
+     * @param l    The listener to report to
+     * @return the reporter, or null if the listener doesn't need progress updates
+     */
+    public static ProgressReporter create(Object data, LoadListener l) {
+        if (l == null || !needProgress(l)) {
+            return null;
+        }
+        return new ProgressReporter(data, l);
+    }
+
+    /**
+     * Report the progress. Called in the download thread after each read, most calls return
+     * without doing anything.
+     *
+     * @param total      The total size, -1 if unknown
+     * @param downloaded The downloaded size
+     */
+    public void update(long total, long downloaded) {
+        final boolean finished = total > 0 && downloaded >= total;
+        if (!finished) {
+            final long now = SystemClock.uptimeMillis();
+            if (now - mLastTime < MIN_INTERVAL) {
+                return;
+            }
+            final long step = total > 0 ? total * MIN_PERCENT_STEP / 100 : MIN_BYTES_STEP;
+            if (downloaded - mLastDownloaded < step) {
+                return;
+            }
+            mLastTime = now;
+        }
+        mLastDownloaded = downloaded;
+        synchronized (this) {
+            mPendingTotal = total;
+            mPendingDownloaded = downloaded;
+            if (mPosted) {
+                // The last update has not been delivered yet, it will carry this one
+                return;
+            }
+            mPosted = true;
+        }
+        sMainHandler.post(this);
+    }
+
+    @Override
+    public void run() {
+        final long total;
+        final long downloaded;
+        synchronized (this) {
+            total = mPendingTotal;
+            downloaded = mPendingDownloaded;
+            mPosted = false;
+        }
+        mListener.onProgressUpdate(mData, total, downloaded);
+    }
+
+    /**
+     * Whether a listener overrides the empty onProgressUpdate of {@link SimpleLoadListener}.
+     */
+    static boolean needProgress(LoadListener l) {
+        if (!(l instanceof SimpleLoadListener)) {
+            return true;
+        }
+        final Class<?> clazz = l.getClass();
+        synchronized (sNeedProgress) {
+            Boolean need = sNeedProgress.get(clazz);
+            if (need == null) {
+                try {
+                    final Method method = clazz.getMethod("onProgressUpdate", Object.class, long.class, long.class);
+                    need = method.getDeclaringClass() != SimpleLoadListener.class;
+                } catch (NoSuchMethodException e) {
+                    need = true;
+                }
+                sNeedProgress.put(clazz, need);
+            }
+            return need;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.Locale;
+
+/**
+ * Checks a download before its bytes are written to the http cache, so that error pages and
+ * oversized files are dropped early instead of costing cache space and a failed decode.<br>
+ * <p>The checks are:
+ * <ul>
+ * <li>The Content-Type, if any, must be an image type or a generic binary type</li>
+ * <li>The first bytes of the body must be the signature of a format BitmapFactory decodes
+ * (JPEG, PNG, GIF, WebP or BMP)</li>
+ * <li>The body must not be larger than the max size</li>
+ * </ul>
+ * A body shorter than its Content-Length is also never cached, but it is kept to be resumed.
+ * Override the methods to accept other types or formats.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class ResponseValidator {
+
+    public static final long DEFAULT_MAX_SIZE = 10 * 1024 * 1024; // 10MB
+
+    /** The number of bytes at the start of the body passed to {@link #checkSignature}. */
+    public static final int SIGNATURE_SIZE = 12;
+
+    private final long mMaxSize;
+
+    /**
+     * Create a validator with the default max size.
+     */
+    public ResponseValidator() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create a validator.
+     *
+     * @param maxSize The max size of an image in bytes
+     */
+    public ResponseValidator(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Get the max size of an image.
+     *
+     * @return the max size in bytes
+     */
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Check the headers of a response, before its body is read.
+     *
+     * @param url           The URL of the response
+     * @param contentType   The Content-Type of the response, null if missing
+     * @param contentLength The length of the whole image (not only of a partial body), -1 if unknown
+     * @throws InvalidResponseException If the response must be dropped
+     */
+    public void checkHeaders(String url, String contentType, long contentLength) throws InvalidResponseException {
+        if (contentType != null && !isImageType(contentType)) {
+            throw new InvalidResponseException("Not an image, Content-Type: " + contentType + " - " + url);
+        }
+        if (contentLength > mMaxSize) {
+            throw new InvalidResponseException("Image too large, " + contentLength + " bytes - " + url);
+        }
+    }
+
+    /**
+     * Check the number of bytes received so far, called as the body is read.
+     *
+     * @param url        The URL of the response
+     * @param downloaded The number of bytes of the image received so far
+     * @throws InvalidResponseException If the image is too large
+     */
+    public void checkSize(String url, long downloaded) throws InvalidResponseException {
+        if (downloaded > mMaxSize) {
+            throw new InvalidResponseException("Image too large, more than " + mMaxSize + " bytes - " + url);
+        }
+    }
+
+    /**
+     * Check the signature at the start of the body.
+     *
+     * @param url    The URL of the response
+     * @param header The first bytes of the body
+     * @param length The number of bytes in header, less than {@link #SIGNATURE_SIZE} only if the
+     *               body is shorter
+     * @throws InvalidResponseException If the body is not an image
+     */
+    public void checkSignature(String url, byte[] header, int length) throws InvalidResponseException {
+        if (!isImageSignature(header, length)) {
+            throw new InvalidResponseException("Not an image, unknown signature - " + url);
+        }
+    }
+
+    /**
+     * Whether a Content-Type may be an image.
+     *
+     * @param contentType The Content-Type, like "image/jpeg; charset=..."
+     * @return true for image types and generic binary types
+     */
+    protected boolean isImageType(String contentType) {
+        final String type = contentType.trim().toLowerCase(Locale.US);
+        return type.length() == 0 || type.startsWith("image/")
+                || type.startsWith("application/octet-stream") || type.startsWith("binary/octet-stream");
+    }
+
+    /**
+     * Whether the first bytes of a body are the signature of an image format.
+     *
+     * @param header The first bytes of the body
+     * @param length The number of bytes in header
+     * @return true if the format is known
+     */
+    protected boolean isImageSignature(byte[] header, int length) {
+        if (length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return true; // JPEG
+        }
+        if (length >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G'
+                && header[4] == 0x0D && header[5] == 0x0A && header[6] == 0x1A && header[7] == 0x0A) {
+            return true; // PNG
+        }
+        if (length >= 4 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8') {
+            return true; // GIF
+        }
+        if (length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return true; // WebP
+        }
+        return length >= 2 && header[0] == 'B' && header[1] == 'M'; // BMP
+    }
+}
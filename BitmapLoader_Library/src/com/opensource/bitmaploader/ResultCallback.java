@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+/**
+ * Receives the result of a work which runs without blocking its caller, like a request queued
+ * in a {@link NetworkScheduler} with a callback.<br>
+ * <p>Exactly one of the methods is called, once, in the thread which finished the work (or the
+ * thread which cancelled it), so it must not block.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public interface ResultCallback<V> {
+
+    /**
+     * Called with the result of the work.
+     *
+     * @param result The result, may be null
+     */
+    public void onResult(V result);
+
+    /**
+     * Called when the work failed, or with a {@link java.util.concurrent.CancellationException}
+     * when it was cancelled before it finished.
+     *
+     * @param error The failure
+     */
+    public void onError(Exception error);
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Decides whether a failed download is tried again, and how long to wait before.<br>
+ * <p>Connection errors, timeouts, 5xx, 408 (Request Timeout) and 429 (Too Many Requests) are
+ * transient and retried. Other status codes (like 404) and responses rejected by the
+ * {@link ResponseValidator} are not, the next attempt would get the same answer. The delay
+ * grows exponentially with the attempt, and a random part of it is dropped ("full jitter") so
+ * that the cells of a grid don't retry in lockstep.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long DEFAULT_BASE_DELAY = 500; // ms
+    public static final long DEFAULT_MAX_DELAY = 8 * 1000; // 8s
+
+    /** A policy which never retries. */
+    public static final RetryPolicy NO_RETRY = new RetryPolicy(0, 0, 0);
+
+    private static final int HTTP_REQUEST_TIMEOUT = 408;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int mMaxRetries;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final Random mRandom = new Random();
+
+    /**
+     * Create a policy with the default settings.
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * Create a policy.
+     *
+     * @param maxRetries The max times a download is tried again after the first attempt
+     * @param baseDelay  The max delay before the first retry in milliseconds, doubled for each
+     *                   following retry
+     * @param maxDelay   The max delay before any retry in milliseconds
+     */
+    public RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+        mMaxRetries = Math.max(maxRetries, 0);
+        mBaseDelay = Math.max(baseDelay, 0);
+        mMaxDelay = Math.max(maxDelay, mBaseDelay);
+    }
+
+    /**
+     * Get the max times a download is tried again.
+     *
+     * @return the max retries
+     */
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * Whether a failure is transient, that is another attempt may succeed.
+     *
+     * @param e The failure
+     * @return true if the failure is transient
+     */
+    public boolean isTransient(IOException e) {
+        if (e instanceof HttpStatusException) {
+            final int code = ((HttpStatusException) e).getStatusCode();
+            return ((HttpStatusException) e).isServerError()
+                    || code == HTTP_REQUEST_TIMEOUT || code == HTTP_TOO_MANY_REQUESTS;
+        }
+        return !(e instanceof InvalidResponseException);
+    }
+
+    /**
+     * Whether to try a download again.
+     *
+     * @param e       The failure of the last attempt
+     * @param retries The times the download has been tried again so far
+     * @return true to try again
+     */
+    public boolean shouldRetry(IOException e, int retries) {
+        return retries < mMaxRetries && isTransient(e);
+    }
+
+    /**
+     * Get the delay before a retry, a random time up to the exponential backoff.
+     *
+     * @param retries The times the download has been tried again so far
+     * @return the delay in milliseconds
+     */
+    public long getDelay(int retries) {
+        final long backoff = Math.min(mMaxDelay, mBaseDelay << Math.min(retries, 16));
+        if (backoff <= 0) {
+            return 0;
+        }
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * backoff);
+        }
+    }
+}
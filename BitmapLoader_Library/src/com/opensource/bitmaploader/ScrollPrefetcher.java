@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.SystemClock;
+import android.widget.AbsListView;
+
+/**
+ * Prefetches the images a {@link android.widget.GridView} or {@link android.widget.ListView}
+ * is scrolling towards, through the {@link ImageWorker.ImageWorkerAdapter} of a worker.<br>
+ * <p>Set it as the OnScrollListener of the list. It measures the scroll velocity and direction
+ * from the first visible position, and prefetches the positions which will be visible in about
+ * the time a prefetch takes (measured on the previous prefetches), at least a screen and at most
+ * {@link #DEFAULT_MAX_LOOK_AHEAD} positions ahead. While the list keeps its direction, the new
+ * positions are queued after the running prefetch and the ones scrolled past are dropped from
+ * it. When the list turns around, the prefetch of the positions behind is cancelled.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class ScrollPrefetcher implements AbsListView.OnScrollListener {
+
+    public static final int DEFAULT_MAX_LOOK_AHEAD = 60;
+
+    private static final long DEFAULT_LATENCY = 300; // ms, until a prefetch has been measured
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+    private static final float LATENCY_SMOOTHING = 0.3f;
+
+    private final ImageWorker mImageWorker;
+    private final PrefetchTarget mTarget;
+    private int mHeaderCount = 0;
+    private int mMaxLookAhead = DEFAULT_MAX_LOOK_AHEAD;
+    private AbsListView.OnScrollListener mOnScrollListener = null;
+
+    private int mLastFirstVisible = -1;
+    private long mLastScrollTime = 0;
+    private float mVelocity = 0; // positions per second, negative when scrolling up
+    private float mLatency = DEFAULT_LATENCY;
+
+    private PrefetchTask mTask = null;
+    private boolean mTaskDown = true;
+    private int mTaskTo = -1; // the last adapter position queued in the task
+    private int mMeasuredCount = 0;
+    private long mMeasuredTime = 0;
+
+    /**
+     * Create a prefetcher which decodes into the memory cache.
+     *
+     * @param worker The worker loading the images of the list, its adapter must be set
+     */
+    public ScrollPrefetcher(ImageWorker worker) {
+        this(worker, PrefetchTarget.MEMORY);
+    }
+
+    /**
+     * Create a prefetcher.
+     *
+     * @param worker The worker loading the images of the list, its adapter must be set
+     * @param target Where to prefetch the images
+     */
+    public ScrollPrefetcher(ImageWorker worker, PrefetchTarget target) {
+        mImageWorker = worker;
+        mTarget = target;
+    }
+
+    /**
+     * Set the number of list positions before the first item of the adapter, like a row of
+     * empty header cells.
+     *
+     * @param headerCount The number of positions
+     */
+    public void setHeaderCount(int headerCount) {
+        mHeaderCount = headerCount;
+    }
+
+    /**
+     * Set the max number of positions prefetched ahead.
+     *
+     * @param maxLookAhead The max number of positions
+     */
+    public void setMaxLookAhead(int maxLookAhead) {
+        mMaxLookAhead = maxLookAhead;
+    }
+
+    /**
+     * Set a listener to forward the scroll events to, as a list has only one.
+     *
+     * @param l The listener
+     */
+    public void setOnScrollListener(AbsListView.OnScrollListener l) {
+        mOnScrollListener = l;
+    }
+
+    /**
+     * Cancel the prefetch in progress, for example when the list is hidden.
+     */
+    public void cancel() {
+        if (mTask != null) {
+            mTask.cancel();
+            mTask = null;
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (scrollState == SCROLL_STATE_IDLE) {
+            mVelocity = 0;
+        }
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScrollStateChanged(view, scrollState);
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (mOnScrollListener != null) {
+            mOnScrollListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+        }
+        final ImageWorker.ImageWorkerAdapter adapter = mImageWorker.getAdapter();
+        if (adapter == null || visibleItemCount == 0) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        if (mLastFirstVisible >= 0 && firstVisibleItem != mLastFirstVisible) {
+            final long elapsed = Math.max(now - mLastScrollTime, 1);
+            final float velocity = (firstVisibleItem - mLastFirstVisible) * 1000f / elapsed;
+            mVelocity = mVelocity * VELOCITY_SMOOTHING + velocity * (1 - VELOCITY_SMOOTHING);
+        }
+        if (firstVisibleItem != mLastFirstVisible) {
+            mLastFirstVisible = firstVisibleItem;
+            mLastScrollTime = now;
+        }
+        updateLatency();
+
+        // Scrolling down unless clearly scrolling up
+        final boolean down = mVelocity >= 0;
+        final int lookAhead = Math.min(mMaxLookAhead, Math.max(visibleItemCount,
+                (int) Math.ceil(Math.abs(mVelocity) * mLatency / 1000f)));
+        final int size = adapter.getSize();
+        final int from;
+        final int to;
+        if (down) {
+            from = Math.max(firstVisibleItem + visibleItemCount - mHeaderCount, 0);
+            to = Math.min(from + lookAhead, size) - 1;
+        } else {
+            from = Math.min(firstVisibleItem - mHeaderCount, size) - 1;
+            to = Math.max(from - lookAhead + 1, 0);
+        }
+        if (down ? from > to : from < to) {
+            return;
+        }
+        final int step = down ? 1 : -1;
+        int start = from;
+        if (mTask != null && !mTask.isCancelled() && mTaskDown == down) {
+            // Same direction, the queued positions from here to mTaskTo are still wanted
+            mTask.keepPending(Math.max((mTaskTo - from) * step + 1, 0));
+            if ((to - mTaskTo) * step <= 0) {
+                return;
+            }
+            if ((mTaskTo + step - from) * step > 0) {
+                start = mTaskTo + step;
+            }
+            if (mTask.add(getItems(adapter, start, to, step))) {
+                mTaskTo = to;
+                return;
+            }
+            if (mTask.getPendingCount() > 0) {
+                // Stopped before the end of its queue
+                start = from;
+            }
+        } else if (mTask != null) {
+            // Turned around, the rest of the prefetch is behind
+            mTask.cancel();
+        }
+        mTask = mImageWorker.prefetch(getItems(adapter, start, to, step), mTarget);
+        mTaskDown = down;
+        mTaskTo = to;
+        mMeasuredCount = 0;
+        mMeasuredTime = 0;
+    }
+
+    private static List<Object> getItems(ImageWorker.ImageWorkerAdapter adapter, int from, int to, int step) {
+        final List<Object> data = new ArrayList<Object>(Math.abs(to - from) + 1);
+        for (int position = from; position != to + step; position += step) {
+            data.add(adapter.getItem(position));
+        }
+        return data;
+    }
+
+    /**
+     * Measure the time a prefetched image takes from the images fetched since the last time.
+     */
+    private void updateLatency() {
+        if (mTask == null) {
+            return;
+        }
+        final int count = mTask.getFetchedCount();
+        if (count <= mMeasuredCount) {
+            return;
+        }
+        final long time = mTask.getElapsedTime();
+        final float latency = (float) (time - mMeasuredTime) / (count - mMeasuredCount);
+        mLatency = mLatency * (1 - LATENCY_SMOOTHING) + latency * LATENCY_SMOOTHING;
+        mMeasuredCount = count;
+        mMeasuredTime = time;
+    }
+}
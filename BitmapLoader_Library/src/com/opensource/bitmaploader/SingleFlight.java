@@ -0,0 +1,605 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent calls with the same key into one call.<br>
+ * <p>The first caller of a key runs the work on its own thread, callers arriving while it is
+ * running wait for it and all of them get the same result.<br>
+ * <p>Callers may pass a {@link CancellationSignal}. A cancelled caller stops waiting at once
+ * (the first caller keeps running the work for the others), and the work itself is cancelled
+ * through the signal given to {@link Work#call(CancellationSignal)} only when every caller has
+ * been cancelled.<br>
+ * <p>An {@link AsyncWork} holds no thread of its callers while it runs: with
+ * {@link #executeAsync(String, CancellationSignal, AsyncWork, ResultCallback)} each caller gets
+ * the result through its own {@link ResultCallback}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class SingleFlight<V> {
+
+    // Both guarded by mCalls
+    private final Map<String, Call> mCalls = new HashMap<String, Call>();
+    private final Map<String, AsyncCall> mAsyncCalls = new HashMap<String, AsyncCall>();
+
+    /**
+     * A result which is handed to several callers and must know how many, to release a shared
+     * resource when the last caller is done with it.
+     */
+    public interface Shared {
+
+        /**
+         * Called once before the result is handed out.
+         *
+         * @param count The number of callers which get this result
+         */
+        public void setShareCount(int count);
+
+        /**
+         * Called for a caller which was counted but gave up before it got the result.
+         */
+        public void release();
+    }
+
+    /**
+     * A work which can be cancelled.
+     */
+    public interface Work<V> {
+
+        /**
+         * Run the work.
+         *
+         * @param signal Cancelled when all the callers waiting for the work have been cancelled
+         * @return the result
+         * @throws Exception If the work failed
+         */
+        public V call(CancellationSignal signal) throws Exception;
+    }
+
+    /**
+     * A work which hands its result to a callback instead of returning it, so that it doesn't
+     * hold the thread of the caller while it runs.
+     */
+    public interface AsyncWork<V> {
+
+        /**
+         * Start the work. The callback must be called once, in any thread, when it is done.
+         *
+         * @param signal   Cancelled when all the callers waiting for the work have been cancelled
+         * @param callback Gets the result of the work
+         */
+        public void start(CancellationSignal signal, ResultCallback<V> callback);
+    }
+
+    /**
+     * Run the callable, or join the call of the same key which is in flight.
+     *
+     * @param key      The key of the work
+     * @param callable The work to run if there is no call in flight
+     * @return The result of the call
+     * @throws InterruptedException If the current thread was interrupted while waiting.
+     * @throws ExecutionException   If the work threw a checked exception.
+     */
+    public V execute(String key, final Callable<V> callable) throws InterruptedException, ExecutionException {
+        return execute(key, null, new Work<V>() {
+            @Override
+            public V call(CancellationSignal signal) throws Exception {
+                return callable.call();
+            }
+        });
+    }
+
+    /**
+     * Run the work, or join the call of the same key which is in flight.
+     *
+     * @param key    The key of the work
+     * @param signal The cancellation signal of the caller, may be null
+     * @param work   The work to run if there is no call in flight
+     * @return The result of the call
+     * @throws InterruptedException  If the current thread was interrupted while waiting.
+     * @throws ExecutionException    If the work threw a checked exception.
+     * @throws CancellationException If the signal was cancelled before the call finished.
+     */
+    public V execute(String key, CancellationSignal signal, Work<V> work)
+            throws InterruptedException, ExecutionException {
+        Call call;
+        boolean owner = false;
+        synchronized (mCalls) {
+            call = mCalls.get(key);
+            if (call == null) {
+                call = new Call(key, work);
+                mCalls.put(key, call);
+                owner = true;
+            } else {
+                call.mmCallers++;
+            }
+            call.mmLive++;
+        }
+        final Caller caller = new Caller(call);
+        if (signal != null) {
+            signal.addOnCancelListener(caller);
+        }
+        try {
+            if (owner) {
+                try {
+                    call.run();
+                } finally {
+                    finish(call);
+                }
+            } else {
+                call.await(signal);
+            }
+            if (!call.isDone()) {
+                leave(caller);
+                throw new CancellationException("Cancelled while waiting for " + key);
+            }
+            // Done, it doesn't block
+            return call.get();
+        } catch (InterruptedException e) {
+            leave(caller);
+            throw e;
+        } catch (ExecutionException e) {
+            // Unchecked exceptions and errors (like OutOfMemoryError) go to the caller as they are
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } finally {
+            if (signal != null) {
+                signal.removeOnCancelListener(caller);
+            }
+        }
+    }
+
+    /**
+     * Start the work, or join the async call of the same key which is in flight, without waiting
+     * for it. Async calls and {@link #execute(String, CancellationSignal, Work)} calls of the
+     * same key don't join each other.
+     *
+     * @param key      The key of the work
+     * @param signal   The cancellation signal of the caller, may be null. When it is cancelled
+     *                 before the result, the callback gets a {@link CancellationException} at
+     *                 once in the thread which cancelled it.
+     * @param work     The work to start if there is no call in flight
+     * @param callback Gets the result of the call, in the thread which finished the work
+     */
+    public void executeAsync(String key, CancellationSignal signal, AsyncWork<V> work,
+                             ResultCallback<? super V> callback) {
+        AsyncCall call;
+        boolean owner = false;
+        final AsyncCaller caller;
+        synchronized (mCalls) {
+            call = mAsyncCalls.get(key);
+            if (call == null) {
+                call = new AsyncCall(key);
+                mAsyncCalls.put(key, call);
+                owner = true;
+            }
+            caller = new AsyncCaller(call, signal, callback);
+            call.mmCallers.add(caller);
+        }
+        if (signal != null) {
+            signal.addOnCancelListener(caller);
+        }
+        if (owner) {
+            try {
+                work.start(call.mmSignal, call);
+            } catch (RuntimeException e) {
+                call.onError(e);
+            }
+        }
+    }
+
+    /**
+     * Run the work, or join the async call of the same key which is in flight, and wait for the
+     * result.
+     *
+     * @param key    The key of the work
+     * @param signal The cancellation signal of the caller, may be null
+     * @param work   The work to start if there is no call in flight
+     * @return The result of the call
+     * @throws InterruptedException  If the current thread was interrupted while waiting.
+     * @throws ExecutionException    If the work failed with a checked exception.
+     * @throws CancellationException If the signal was cancelled before the call finished.
+     */
+    public V execute(String key, CancellationSignal signal, AsyncWork<V> work)
+            throws InterruptedException, ExecutionException {
+        // A signal of our own, to leave the call if the thread is interrupted
+        final CancellationSignal callerSignal = new CancellationSignal();
+        final CancellationSignal.OnCancelListener forward = signal == null ? null
+                : new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                callerSignal.cancel();
+            }
+        };
+        if (signal != null) {
+            signal.addOnCancelListener(forward);
+        }
+        final Waiter waiter = new Waiter();
+        try {
+            executeAsync(key, callerSignal, work, waiter);
+            return waiter.await(callerSignal);
+        } finally {
+            if (signal != null) {
+                signal.removeOnCancelListener(forward);
+            }
+        }
+    }
+
+    /**
+     * Stop callers from joining a call.
+     *
+     * @return the number of callers of the call
+     */
+    private int finish(Call call) {
+        synchronized (mCalls) {
+            if (mCalls.get(call.mmKey) == call) {
+                mCalls.remove(call.mmKey);
+            }
+            call.mmCounted = true;
+            return call.mmCallers;
+        }
+    }
+
+    /**
+     * Give up the result of a call for a caller which was interrupted or cancelled.
+     */
+    private void leave(Caller caller) {
+        final Call call = caller.mmCall;
+        caller.depart();
+        synchronized (mCalls) {
+            if (!call.mmCounted) {
+                call.mmCallers--;
+                return;
+            }
+        }
+        // The caller has been counted in a shared result, wait for it to release its share
+        boolean interrupted = false;
+        while (true) {
+            try {
+                final V v = call.get();
+                if (v instanceof Shared) {
+                    ((Shared) v).release();
+                }
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            } catch (CancellationException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Whether a call of the key is in flight.
+     *
+     * @param key The key of the work
+     * @return true if a call is running
+     */
+    public boolean isInFlight(String key) {
+        synchronized (mCalls) {
+            return mCalls.containsKey(key) || mAsyncCalls.containsKey(key);
+        }
+    }
+
+    private class Call extends FutureTask<V> {
+        private final String mmKey;
+        private final CancellationSignal mmSignal;
+        // Guarded by mCalls
+        private int mmCallers = 1;
+        private int mmLive = 0;
+        private boolean mmCounted = false;
+
+        public Call(String key, final Work<V> work) {
+            this(key, work, new CancellationSignal());
+        }
+
+        private Call(String key, final Work<V> work, final CancellationSignal signal) {
+            super(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    return work.call(signal);
+                }
+            });
+            mmKey = key;
+            mmSignal = signal;
+        }
+
+        /**
+         * Wait until the call is done or the signal is cancelled.
+         */
+        public synchronized void await(CancellationSignal signal) throws InterruptedException {
+            while (!isDone() && (signal == null || !signal.isCanceled())) {
+                wait();
+            }
+        }
+
+        public synchronized void wakeUp() {
+            notifyAll();
+        }
+
+        @Override
+        protected void set(V v) {
+            if (v instanceof Shared) {
+                // Nobody can join any more, so the count is final
+                ((Shared) v).setShareCount(finish(this));
+            }
+            super.set(v);
+        }
+
+        @Override
+        protected void done() {
+            wakeUp();
+        }
+    }
+
+    /**
+     * One caller of a call, which stops waiting when its signal is cancelled.
+     */
+    private class Caller implements CancellationSignal.OnCancelListener {
+        private final Call mmCall;
+        // Guarded by mCalls
+        private boolean mmDeparted = false;
+
+        public Caller(Call call) {
+            mmCall = call;
+        }
+
+        @Override
+        public void onCancel() {
+            depart();
+            mmCall.wakeUp();
+        }
+
+        /**
+         * Stop counting this caller among the ones waiting, and cancel the work if it was the
+         * last one.
+         */
+        public void depart() {
+            synchronized (mCalls) {
+                if (mmDeparted) {
+                    return;
+                }
+                mmDeparted = true;
+                mmCall.mmLive--;
+                if (mmCall.mmLive > 0 || mmCall.mmCounted) {
+                    return;
+                }
+                // Nobody waits any more, later callers start a new call
+                if (mCalls.get(mmCall.mmKey) == mmCall) {
+                    mCalls.remove(mmCall.mmKey);
+                }
+            }
+            mmCall.mmSignal.cancel();
+        }
+    }
+
+    /**
+     * A call of an {@link AsyncWork}, which hands the result to the callers still waiting.
+     */
+    private class AsyncCall implements ResultCallback<V> {
+        private final String mmKey;
+        private final CancellationSignal mmSignal = new CancellationSignal();
+        // Guarded by mCalls
+        private final ArrayList<AsyncCaller> mmCallers = new ArrayList<AsyncCaller>(1);
+        private boolean mmDone = false;
+
+        public AsyncCall(String key) {
+            mmKey = key;
+        }
+
+        @Override
+        public void onResult(V result) {
+            final ArrayList<AsyncCaller> callers = complete();
+            if (callers == null) {
+                // Called twice
+                return;
+            }
+            if (result instanceof Shared) {
+                // Nobody can join any more, so the count is final
+                ((Shared) result).setShareCount(callers.size());
+            }
+            for (int i = 0; i < callers.size(); i++) {
+                callers.get(i).deliver(result, null);
+            }
+        }
+
+        @Override
+        public void onError(Exception error) {
+            final ArrayList<AsyncCaller> callers = complete();
+            if (callers == null) {
+                return;
+            }
+            for (int i = 0; i < callers.size(); i++) {
+                callers.get(i).deliver(null, error);
+            }
+        }
+
+        /**
+         * Stop callers from joining and leaving the call.
+         *
+         * @return the callers to hand the result to, null if the call is already complete
+         */
+        private ArrayList<AsyncCaller> complete() {
+            synchronized (mCalls) {
+                if (mmDone) {
+                    return null;
+                }
+                mmDone = true;
+                if (mAsyncCalls.get(mmKey) == this) {
+                    mAsyncCalls.remove(mmKey);
+                }
+                return new ArrayList<AsyncCaller>(mmCallers);
+            }
+        }
+    }
+
+    /**
+     * One caller of an async call, which leaves the call when its signal is cancelled.
+     */
+    private class AsyncCaller implements CancellationSignal.OnCancelListener {
+        private final AsyncCall mmCall;
+        private final CancellationSignal mmSignal;
+        private final ResultCallback<? super V> mmCallback;
+        // Guarded by mCalls
+        private boolean mmDeparted = false;
+        private boolean mmDelivered = false;
+
+        public AsyncCaller(AsyncCall call, CancellationSignal signal,
+                           ResultCallback<? super V> callback) {
+            mmCall = call;
+            mmSignal = signal;
+            mmCallback = callback;
+        }
+
+        @Override
+        public void onCancel() {
+            boolean cancelWork = false;
+            synchronized (mCalls) {
+                if (mmDelivered || mmDeparted) {
+                    return;
+                }
+                mmDeparted = true;
+                if (!mmCall.mmDone) {
+                    mmCall.mmCallers.remove(this);
+                    if (mmCall.mmCallers.isEmpty()) {
+                        // Nobody waits any more, later callers start a new call
+                        if (mAsyncCalls.get(mmCall.mmKey) == mmCall) {
+                            mAsyncCalls.remove(mmCall.mmKey);
+                        }
+                        cancelWork = true;
+                    }
+                }
+                // Else it has been counted, deliver() releases its share
+            }
+            if (cancelWork) {
+                mmCall.mmSignal.cancel();
+            }
+            mmCallback.onError(new CancellationException("Cancelled while waiting for "
+                    + mmCall.mmKey));
+        }
+
+        /**
+         * Hand the result to the callback, or release the share of a caller which departed.
+         */
+        public void deliver(V result, Exception error) {
+            if (mmSignal != null) {
+                mmSignal.removeOnCancelListener(this);
+            }
+            synchronized (mCalls) {
+                if (!mmDeparted) {
+                    mmDelivered = true;
+                }
+            }
+            if (!mmDelivered) {
+                if (result instanceof Shared) {
+                    ((Shared) result).release();
+                }
+                return;
+            }
+            if (error != null) {
+                mmCallback.onError(error);
+            } else {
+                mmCallback.onResult(result);
+            }
+        }
+    }
+
+    /**
+     * Waits for the result of an async call, for the blocking
+     * {@link SingleFlight#execute(String, CancellationSignal, AsyncWork)}.
+     */
+    private class Waiter implements ResultCallback<V> {
+        // Guarded by this
+        private boolean mmDone = false;
+        private boolean mmAbandoned = false;
+        private V mmResult;
+        private Exception mmError;
+
+        @Override
+        public void onResult(V result) {
+            synchronized (this) {
+                if (!mmAbandoned) {
+                    mmDone = true;
+                    mmResult = result;
+                    notifyAll();
+                    return;
+                }
+            }
+            // The thread gave up waiting after the result was counted for it
+            if (result instanceof Shared) {
+                ((Shared) result).release();
+            }
+        }
+
+        @Override
+        public synchronized void onError(Exception error) {
+            mmDone = true;
+            mmError = error;
+            notifyAll();
+        }
+
+        public V await(CancellationSignal signal) throws InterruptedException, ExecutionException {
+            synchronized (this) {
+                try {
+                    while (!mmDone) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    mmAbandoned = true;
+                }
+            }
+            if (mmAbandoned) {
+                // Leave the call, a result already handed to us is released
+                signal.cancel();
+                synchronized (this) {
+                    if (mmDone && mmError == null && mmResult instanceof Shared) {
+                        ((Shared) mmResult).release();
+                    }
+                }
+                throw new InterruptedException("Interrupted while waiting");
+            }
+            if (mmError instanceof CancellationException) {
+                throw (CancellationException) mmError;
+            } else if (mmError instanceof RuntimeException) {
+                throw (RuntimeException) mmError;
+            } else if (mmError != null) {
+                throw new ExecutionException(mmError);
+            }
+            return mmResult;
+        }
+    }
+}
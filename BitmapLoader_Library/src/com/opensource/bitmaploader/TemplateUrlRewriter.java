@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.util.Arrays;
+
+import android.net.Uri;
+
+/**
+ * A {@link UrlRewriter} which builds variant URLs from a template.<br>
+ * <p>The template can use these placeholders:
+ * <ul>
+ * <li>{url} - the whole original URL</li>
+ * <li>{scheme}, {authority}, {path}, {query} - the parts of the original URL, the query without
+ * the leading '?'</li>
+ * <li>{size} - the variant size picked for the target</li>
+ * </ul>
+ * For example "{scheme}://{authority}{path}?w={size}" for a server taking a query parameter, or
+ * "{scheme}://{authority}/thumbs/{size}{path}" for one serving variants under a path.<br>
+ * <p>The variant size is the smallest of the given sizes which is not smaller than the larger
+ * side of the target. Targets larger than every variant get the original URL.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class TemplateUrlRewriter implements UrlRewriter {
+
+    private final String mTemplate;
+    private final int[] mSizes;
+
+    /**
+     * Constructor
+     *
+     * @param template The template of the variant URL
+     * @param sizes    The sizes the server has variants of
+     */
+    public TemplateUrlRewriter(String template, int... sizes) {
+        if (template == null || sizes == null || sizes.length == 0) {
+            throw new IllegalArgumentException("Template and sizes must be given");
+        }
+        mTemplate = template;
+        mSizes = sizes.clone();
+        Arrays.sort(mSizes);
+    }
+
+    @Override
+    public String rewrite(String url, int width, int height) {
+        final int target = Math.max(width, height);
+        if (target <= 0) {
+            return null;
+        }
+        int size = -1;
+        for (int variant : mSizes) {
+            if (variant >= target) {
+                size = variant;
+                break;
+            }
+        }
+        if (size < 0) {
+            return null;
+        }
+        final Uri uri = Uri.parse(url);
+        return mTemplate.replace("{url}", url)
+                .replace("{scheme}", nonNull(uri.getScheme()))
+                .replace("{authority}", nonNull(uri.getEncodedAuthority()))
+                .replace("{path}", nonNull(uri.getEncodedPath()))
+                .replace("{query}", nonNull(uri.getEncodedQuery()))
+                .replace("{size}", String.valueOf(size));
+    }
+
+    private static String nonNull(String s) {
+        return s == null ? "" : s;
+    }
+}
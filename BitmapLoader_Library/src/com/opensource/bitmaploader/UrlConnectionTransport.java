@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * The default {@link HttpTransport}, based on {@link HttpURLConnection}.<br>
+ * <p>{@link HttpURLConnection} keeps idle keep-alive connections in a pool per host, but only
+ * gets a connection back when the body has been read to the end and closed. So this transport
+ * never calls {@link HttpURLConnection#disconnect()} after a complete response, it drains the
+ * rest of the body instead, and many images from one host share a few connections rather than
+ * paying a TCP and TLS handshake each.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    private static final String TAG = "UrlConnectionTransport";
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000; // 10s
+    public static final int DEFAULT_READ_TIMEOUT = 20 * 1000; // 20s
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST = 5;
+
+    // Drain at most this of an unread body to keep its connection, disconnect if more is left
+    private static final int MAX_DRAIN_SIZE = 64 * 1024; // 64KB
+
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+
+    static {
+        // The connection pool reads these when the first connection of the process is made, so
+        // they are set as soon as this class is loaded, which ImageFetcher does when it is loaded
+        // Connection reuse is only turned off where it is buggy (pre-froyo)
+        Utils.disableConnectionReuseIfNecessary();
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections",
+                    String.valueOf(DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST));
+        }
+    }
+
+    /**
+     * Create a transport with the default timeouts.
+     */
+    public UrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Create a transport.
+     *
+     * @param connectTimeout The connect timeout in milliseconds
+     * @param readTimeout    The read timeout in milliseconds
+     */
+    public UrlConnectionTransport(int connectTimeout, int readTimeout) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * Set the max idle keep-alive connections kept per host, through the process wide
+     * "http.maxConnections" property.<br>
+     * <p>This is best-effort: the connection pool of {@link HttpURLConnection} reads the property
+     * once, when the first connection of the process is made, and ignores it after that. Call
+     * this early, for example in Application.onCreate(), before anything opens a connection.
+     *
+     * @param max The max idle connections per host
+     */
+    public static void setMaxIdleConnectionsPerHost(int max) {
+        System.setProperty("http.maxConnections", String.valueOf(max));
+    }
+
+    @Override
+    public Response execute(String url, Map<String, String> headers) throws IOException {
+        final HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            conn.setConnectTimeout(mConnectTimeout);
+            conn.setReadTimeout(mReadTimeout);
+            conn.setRequestMethod("GET");
+            // ImageFetcher handles the http cache itself
+            conn.setUseCaches(false);
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            conn.connect();
+            return new UrlConnectionResponse(conn);
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    private static class UrlConnectionResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private InputStream mInputStream;
+        private volatile boolean mAborted = false;
+
+        public UrlConnectionResponse(HttpURLConnection conn) {
+            mConnection = conn;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            final String length = mConnection.getHeaderField("Content-Length");
+            if (length != null) {
+                try {
+                    return Long.parseLong(length.trim());
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Bad Content-Length: " + length);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (mInputStream == null) {
+                mInputStream = mConnection.getInputStream();
+            }
+            return mInputStream;
+        }
+
+        @Override
+        public void abort() {
+            mAborted = true;
+            // Closes the socket, which a blocked read notices at once
+            mConnection.disconnect();
+        }
+
+        @Override
+        public void close() {
+            if (mAborted) {
+                return;
+            }
+            try {
+                final InputStream in = mInputStream != null ? mInputStream
+                        : (getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getInputStream() : mConnection.getErrorStream());
+                if (in == null) {
+                    return;
+                }
+                final byte[] buffer = new byte[Utils.IO_BUFFER_SIZE];
+                int drained = 0;
+                int count;
+                while (drained < MAX_DRAIN_SIZE && (count = in.read(buffer)) != -1) {
+                    drained += count;
+                }
+                final boolean exhausted = drained < MAX_DRAIN_SIZE || in.read() == -1;
+                in.close();
+                if (!exhausted) {
+                    // Too much left to read, drop the connection instead
+                    mConnection.disconnect();
+                }
+            } catch (IOException e) {
+                mConnection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+/**
+ * Maps the URL of an image and the size it will be shown at to the URL of a server side variant,
+ * so that small targets download small files.<br>
+ * <p>Register one per host with {@link ImageFetcher#registerUrlRewriter(String, UrlRewriter)}.
+ * The rewritten URL is also the cache key of the bitmap, so a rewriter should map many sizes to
+ * a few variants (see {@link TemplateUrlRewriter}) to keep the cache hit rate up.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public interface UrlRewriter {
+
+    /**
+     * Get the URL of the variant to download. This is called in both the main thread and
+     * background threads, and must always give the same result for the same arguments.
+     *
+     * @param url    The URL of the image
+     * @param width  The target width, 0 if unknown
+     * @param height The target height, 0 if unknown
+     * @return the URL of the variant, null to download the URL itself
+     */
+    public String rewrite(String url, int width, int height);
+}
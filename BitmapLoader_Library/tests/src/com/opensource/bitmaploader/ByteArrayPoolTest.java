@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link ByteArrayPool}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class ByteArrayPoolTest extends TestCase {
+
+    public void testAcquireHasArraySize() {
+        final byte[] array = ByteArrayPool.acquire();
+        assertEquals(ByteArrayPool.ARRAY_SIZE, array.length);
+        ByteArrayPool.release(array);
+    }
+
+    public void testReleasedArrayIsReused() {
+        final byte[] array = ByteArrayPool.acquire();
+        ByteArrayPool.release(array);
+        final byte[] again = ByteArrayPool.acquire();
+        assertSame(array, again);
+        ByteArrayPool.release(again);
+    }
+
+    public void testForeignArrayIsNotPooled() {
+        final byte[] small = new byte[16];
+        final byte[] large = new byte[ByteArrayPool.ARRAY_SIZE + 1];
+        ByteArrayPool.release(small);
+        ByteArrayPool.release(large);
+        ByteArrayPool.release(null);
+        final byte[] array = ByteArrayPool.acquire();
+        assertNotSame(small, array);
+        assertNotSame(large, array);
+        assertEquals(ByteArrayPool.ARRAY_SIZE, array.length);
+        ByteArrayPool.release(array);
+    }
+
+    public void testPoolIsBounded() {
+        final byte[][] arrays = new byte[16][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = ByteArrayPool.acquire();
+        }
+        for (byte[] array : arrays) {
+            ByteArrayPool.release(array);
+        }
+        int reused = 0;
+        for (int i = 0; i < arrays.length; i++) {
+            final byte[] array = ByteArrayPool.acquire();
+            for (byte[] released : arrays) {
+                if (released == array) {
+                    reused++;
+                    break;
+                }
+            }
+        }
+        assertTrue(reused > 0);
+        assertTrue(reused < arrays.length);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link ByteBufferPool}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class ByteBufferPoolTest extends TestCase {
+
+    public void testAcquireHasArray() {
+        final ByteBuffer buffer = ByteBufferPool.acquire();
+        assertEquals(ByteBufferPool.BUFFER_SIZE, buffer.capacity());
+        assertEquals(0, buffer.position());
+        assertEquals(buffer.capacity(), buffer.limit());
+        assertTrue(buffer.hasArray());
+        ByteBufferPool.release(buffer);
+    }
+
+    public void testReleasedBufferIsReusedCleared() {
+        final ByteBuffer buffer = ByteBufferPool.acquire();
+        buffer.put((byte) 1);
+        buffer.limit(10);
+        ByteBufferPool.release(buffer);
+        final ByteBuffer again = ByteBufferPool.acquire();
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+        ByteBufferPool.release(again);
+    }
+
+    public void testForeignBufferIsNotPooled() {
+        final ByteBuffer small = ByteBuffer.allocate(16);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(ByteBufferPool.BUFFER_SIZE);
+        ByteBufferPool.release(small);
+        ByteBufferPool.release(direct);
+        ByteBufferPool.release(null);
+        final ByteBuffer buffer = ByteBufferPool.acquire();
+        assertNotSame(small, buffer);
+        assertNotSame(direct, buffer);
+        ByteBufferPool.release(buffer);
+    }
+
+    public void testPoolIsBounded() {
+        final ByteBuffer[] buffers = new ByteBuffer[64];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBufferPool.acquire();
+        }
+        for (ByteBuffer buffer : buffers) {
+            ByteBufferPool.release(buffer);
+        }
+        int reused = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            final ByteBuffer buffer = ByteBufferPool.acquire();
+            for (ByteBuffer released : buffers) {
+                if (released == buffer) {
+                    reused++;
+                    break;
+                }
+            }
+        }
+        assertTrue(reused > 0);
+        assertTrue(reused < buffers.length);
+    }
+}
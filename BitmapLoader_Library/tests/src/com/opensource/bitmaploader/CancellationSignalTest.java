@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link CancellationSignal}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class CancellationSignalTest extends TestCase {
+
+    public void testCancelCallsEveryListenerOnce() {
+        final CancellationSignal signal = new CancellationSignal();
+        final CountingListener first = new CountingListener();
+        final CountingListener second = new CountingListener();
+        signal.addOnCancelListener(first);
+        signal.addOnCancelListener(second);
+        assertFalse(signal.isCanceled());
+        signal.cancel();
+        signal.cancel();
+        assertTrue(signal.isCanceled());
+        assertEquals(1, first.mmCount.get());
+        assertEquals(1, second.mmCount.get());
+    }
+
+    public void testRemovedListenerIsNotCalled() {
+        final CancellationSignal signal = new CancellationSignal();
+        final CountingListener listener = new CountingListener();
+        signal.addOnCancelListener(listener);
+        signal.removeOnCancelListener(listener);
+        signal.cancel();
+        assertEquals(0, listener.mmCount.get());
+    }
+
+    public void testListenersAfterFirstRemoved() {
+        final CancellationSignal signal = new CancellationSignal();
+        final CountingListener first = new CountingListener();
+        final CountingListener second = new CountingListener();
+        final CountingListener third = new CountingListener();
+        signal.addOnCancelListener(first);
+        signal.addOnCancelListener(second);
+        signal.removeOnCancelListener(first);
+        signal.addOnCancelListener(third);
+        signal.removeOnCancelListener(first);
+        signal.cancel();
+        assertEquals(0, first.mmCount.get());
+        assertEquals(1, second.mmCount.get());
+        assertEquals(1, third.mmCount.get());
+    }
+
+    public void testListenerAddedAfterCancelIsCalledAtOnce() {
+        final CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        final CountingListener listener = new CountingListener();
+        signal.addOnCancelListener(listener);
+        assertEquals(1, listener.mmCount.get());
+    }
+
+    public void testListenerMayRemoveItself() {
+        final CancellationSignal signal = new CancellationSignal();
+        final CountingListener other = new CountingListener();
+        signal.addOnCancelListener(new CancellationSignal.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                signal.removeOnCancelListener(this);
+            }
+        });
+        signal.addOnCancelListener(other);
+        signal.cancel();
+        assertEquals(1, other.mmCount.get());
+    }
+
+    public void testConcurrentCancelCallsListenerOnce() throws InterruptedException {
+        final CancellationSignal signal = new CancellationSignal();
+        final CountingListener listener = new CountingListener();
+        signal.addOnCancelListener(listener);
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    signal.cancel();
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, listener.mmCount.get());
+    }
+
+    private static class CountingListener implements CancellationSignal.OnCancelListener {
+        private final AtomicInteger mmCount = new AtomicInteger();
+
+        @Override
+        public void onCancel() {
+            mmCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import java.net.HttpURLConnection;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link CircuitBreaker}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class CircuitBreakerTest extends TestCase {
+    private static final String URL = "http://a.test/image.png";
+    private static final long TIMEOUT = 5000; // ms
+
+    public void testOpensAfterThreshold() {
+        final CircuitBreaker breaker = new CircuitBreaker(3, 60 * 1000);
+        final FakeTransport transport = new FakeTransport();
+        breaker.onFailure(URL, transport);
+        breaker.onFailure(URL, transport);
+        assertTrue(breaker.allowRequest(URL));
+        breaker.onFailure(URL, transport);
+        assertFalse(breaker.allowRequest(URL));
+        assertTrue(breaker.isOpen("A.test"));
+        // Other hosts are not affected
+        assertTrue(breaker.allowRequest("http://b.test/image.png"));
+    }
+
+    public void testSuccessResetsFailures() {
+        final CircuitBreaker breaker = new CircuitBreaker(2, 60 * 1000);
+        final FakeTransport transport = new FakeTransport();
+        breaker.onFailure(URL, transport);
+        breaker.onSuccess(URL);
+        breaker.onFailure(URL, transport);
+        assertTrue(breaker.allowRequest(URL));
+    }
+
+    public void testProbeClosesCircuit() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        final FakeTransport transport = new FakeTransport();
+        transport.enqueue(URL, HttpURLConnection.HTTP_PARTIAL);
+        breaker.onFailure(URL, transport);
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        while (breaker.isOpen("a.test")) {
+            assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(5);
+        }
+        assertEquals(1, transport.getRequestCount(URL));
+        assertEquals("bytes=0-0", transport.getRequests().get(0).mmHeaders.get("Range"));
+    }
+
+    public void testFailedProbeKeepsCircuitOpen() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        final FakeTransport transport = new FakeTransport();
+        transport.enqueue(URL, HttpURLConnection.HTTP_UNAVAILABLE);
+        breaker.onFailure(URL, transport);
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        while (transport.getRequestCount(URL) == 0) {
+            assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(5);
+        }
+        assertTrue(breaker.isOpen("a.test"));
+        // Probed again later, the host is back then
+        transport.enqueue(URL, HttpURLConnection.HTTP_OK);
+        while (breaker.isOpen("a.test")) {
+            assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the size accounting of {@link DiskLruCache} and {@link DiskCacheBudget}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class DiskLruCacheTest extends TestCase {
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(System.getProperty("java.io.tmpdir"), "DiskLruCacheTest" + System.nanoTime());
+        assertTrue(mDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DiskCacheBudget.setMaxByteSize(0);
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+        super.tearDown();
+    }
+
+    public void testPutCountsFileLength() throws IOException {
+        final DiskLruCache cache = DiskLruCache.openCache(null, mDir, 1024 * 1024);
+        cache.put("a", write(cache.createFilePath("a"), 100));
+        cache.put("b", write(cache.createFilePath("b"), 50));
+        assertEquals(150, cache.getCacheByteSize());
+    }
+
+    public void testReplacedFileGivesBackOldLength() throws IOException {
+        final DiskLruCache cache = DiskLruCache.openCache(null, mDir, 1024 * 1024);
+        final String path = cache.createFilePath("a");
+        cache.put("a", write(path, 100));
+        // Replaced in place, like a download renamed over the cache file
+        cache.put("a", write(path, 30));
+        assertEquals(30, cache.getCacheByteSize());
+        cache.put("a", write(path, 200));
+        assertEquals(200, cache.getCacheByteSize());
+        cache.removeEldest();
+        assertEquals(0, cache.getCacheByteSize());
+    }
+
+    public void testRemoveDeletesFileAndLength() throws IOException {
+        final DiskLruCache cache = DiskLruCache.openCache(null, mDir, 1024 * 1024);
+        final File a = write(cache.createFilePath("a"), 100);
+        cache.put("a", a);
+        cache.put("b", write(cache.createFilePath("b"), 50));
+        cache.remove("a");
+        assertFalse(cache.containsKey("a"));
+        assertFalse(a.exists());
+        assertEquals(50, cache.getCacheByteSize());
+        // Removing a key which is not there changes nothing
+        cache.remove("a");
+        assertEquals(50, cache.getCacheByteSize());
+    }
+
+    public void testCacheLimitEvictsEldest() throws IOException {
+        final DiskLruCache cache = DiskLruCache.openCache(null, mDir, 250);
+        cache.put("a", write(cache.createFilePath("a"), 100));
+        cache.put("b", write(cache.createFilePath("b"), 100));
+        cache.put("c", write(cache.createFilePath("c"), 100));
+        assertEquals(200, cache.getCacheByteSize());
+        assertFalse(cache.containsKey("a"));
+        assertTrue(cache.containsKey("c"));
+    }
+
+    public void testBudgetEvictsLowestValue() throws IOException {
+        final File otherDir = new File(mDir, "other");
+        assertTrue(otherDir.mkdirs());
+        final DiskLruCache heavy = DiskLruCache.openCache(null, mDir, 1024 * 1024);
+        final DiskLruCache light = DiskLruCache.openCache(null, otherDir, 1024 * 1024);
+        DiskCacheBudget.register(heavy, 4.0f);
+        DiskCacheBudget.register(light, 1.0f);
+        try {
+            heavy.put("a", write(heavy.createFilePath("a"), 100));
+            light.put("b", write(light.createFilePath("b"), 100));
+            DiskCacheBudget.setMaxByteSize(150);
+            assertEquals(100, heavy.getCacheByteSize());
+            assertEquals(0, light.getCacheByteSize());
+        } finally {
+            DiskCacheBudget.unregister(heavy);
+            DiskCacheBudget.unregister(light);
+            light.clearCache();
+            otherDir.delete();
+        }
+    }
+
+    public void testRegisterAgainChangesWeight() throws IOException {
+        final File otherDir = new File(mDir, "other");
+        assertTrue(otherDir.mkdirs());
+        final DiskLruCache first = DiskLruCache.openCache(null, mDir, 1024 * 1024);
+        final DiskLruCache second = DiskLruCache.openCache(null, otherDir, 1024 * 1024);
+        DiskCacheBudget.register(first, 4.0f);
+        DiskCacheBudget.register(second, 1.0f);
+        // The last weight registered wins
+        DiskCacheBudget.register(first, 0.5f);
+        try {
+            first.put("a", write(first.createFilePath("a"), 100));
+            second.put("b", write(second.createFilePath("b"), 100));
+            DiskCacheBudget.setMaxByteSize(150);
+            assertEquals(0, first.getCacheByteSize());
+            assertEquals(100, second.getCacheByteSize());
+        } finally {
+            DiskCacheBudget.unregister(first);
+            DiskCacheBudget.unregister(second);
+            second.clearCache();
+            otherDir.delete();
+        }
+    }
+
+    public void testOpenDeletesAbandonedTempFiles() throws IOException {
+        final DiskLruCache cache = DiskLruCache.openCache(null, mDir, 1024 * 1024);
+        final String path = cache.createFilePath("a");
+        final File stale = write(path + DiskLruCache.TEMP_SUFFIX, 100);
+        final File staleMeta = write(stale.getPath() + DiskLruCache.SIDECAR_SUFFIX, 10);
+        final File fresh = write(cache.createFilePath("b") + DiskLruCache.TEMP_SUFFIX, 100);
+        final long old = System.currentTimeMillis() - DiskLruCache.TEMP_FILE_TTL - 60 * 1000;
+        assertTrue(stale.setLastModified(old));
+        assertTrue(staleMeta.setLastModified(old));
+
+        final DiskLruCache reopened = DiskLruCache.openCache(null, mDir, 1024 * 1024);
+        assertFalse(stale.exists());
+        assertFalse(staleMeta.exists());
+        // May still be resumed
+        assertTrue(fresh.exists());
+        assertEquals(0, reopened.getCacheByteSize());
+    }
+
+    private static File write(String path, int length) throws IOException {
+        final File file = new File(path);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-process {@link HttpTransport} which returns canned responses, so that tests need no
+ * network and no server.<br>
+ * <p>Responses are queued per URL and handed out in order, a request without a queued
+ * response fails with an {@link IOException}. Every request is recorded with its headers.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class FakeTransport implements HttpTransport {
+
+    private final Map<String, LinkedList<Object>> mQueued = new HashMap<String, LinkedList<Object>>();
+    private final List<Request> mRequests = new ArrayList<Request>();
+
+    /**
+     * Queue a response for a URL.
+     *
+     * @param url  The URL
+     * @param code The status code of the response
+     * @return the response, to add headers and a body to
+     */
+    public synchronized FakeResponse enqueue(String url, int code) {
+        final FakeResponse response = new FakeResponse(code);
+        queue(url).add(response);
+        return response;
+    }
+
+    /**
+     * Queue a failure for a URL, the request throws it.
+     *
+     * @param url   The URL
+     * @param error The failure
+     */
+    public synchronized void enqueueFailure(String url, IOException error) {
+        queue(url).add(error);
+    }
+
+    /**
+     * Get the requests made so far, oldest first.
+     *
+     * @return a copy of the requests
+     */
+    public synchronized List<Request> getRequests() {
+        return new ArrayList<Request>(mRequests);
+    }
+
+    /**
+     * Get the number of requests made to a URL.
+     *
+     * @param url The URL
+     * @return the number of requests
+     */
+    public synchronized int getRequestCount(String url) {
+        int count = 0;
+        for (Request request : mRequests) {
+            if (request.mmUrl.equals(url)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Response execute(String url, Map<String, String> headers) throws IOException {
+        final Object next;
+        synchronized (this) {
+            mRequests.add(new Request(url, headers == null ? new HashMap<String, String>()
+                    : new HashMap<String, String>(headers)));
+            final LinkedList<Object> queue = mQueued.get(url);
+            next = queue == null ? null : queue.poll();
+        }
+        if (next instanceof IOException) {
+            throw (IOException) next;
+        }
+        if (next == null) {
+            throw new IOException("No response queued for " + url);
+        }
+        return (FakeResponse) next;
+    }
+
+    private LinkedList<Object> queue(String url) {
+        LinkedList<Object> queue = mQueued.get(url);
+        if (queue == null) {
+            queue = new LinkedList<Object>();
+            mQueued.put(url, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * A request recorded by the transport.
+     */
+    public static class Request {
+        public final String mmUrl;
+        public final Map<String, String> mmHeaders;
+
+        public Request(String url, Map<String, String> headers) {
+            mmUrl = url;
+            mmHeaders = headers;
+        }
+    }
+
+    /**
+     * A canned response.
+     */
+    public static class FakeResponse implements Response {
+        private final int mmCode;
+        private final Map<String, String> mmHeaders = new HashMap<String, String>();
+        private byte[] mmBody = new byte[0];
+        private volatile boolean mmClosed = false;
+        private volatile boolean mmAborted = false;
+
+        public FakeResponse(int code) {
+            mmCode = code;
+        }
+
+        /**
+         * Add a header.
+         *
+         * @return this response
+         */
+        public FakeResponse header(String name, String value) {
+            mmHeaders.put(name, value);
+            return this;
+        }
+
+        /**
+         * Set the body, and its Content-Length.
+         *
+         * @return this response
+         */
+        public FakeResponse body(byte[] body) {
+            mmBody = body;
+            mmHeaders.put("Content-Length", String.valueOf(body.length));
+            return this;
+        }
+
+        public boolean isClosed() {
+            return mmClosed;
+        }
+
+        public boolean isAborted() {
+            return mmAborted;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mmCode;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mmHeaders.get(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            final String length = mmHeaders.get("Content-Length");
+            return length == null ? -1 : Long.parseLong(length);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (mmAborted) {
+                throw new IOException("Aborted");
+            }
+            return new ByteArrayInputStream(mmBody);
+        }
+
+        @Override
+        public void close() {
+            mmClosed = true;
+        }
+
+        @Override
+        public void abort() {
+            mmAborted = true;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opensource.bitmaploader;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link HttpCacheEntry}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class HttpCacheEntryTest extends TestCase {
+    // Sun, 06 Nov 1994 08:49:37 GMT
+    private static final long DATE = 784111777000L;
+    private static final long NOW = 1400000000000L;
+
+    public void testParseDateFormats() {
+        assertEquals(DATE, HttpCacheEntry.parseDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(DATE, HttpCacheEntry.parseDate("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(DATE, HttpCacheEntry.parseDate(" Sun Nov  6 08:49:37 1994 "));
+    }
+
+    public void testParseDateInvalid() {
+        assertEquals(-1, HttpCacheEntry.parseDate(null));
+        assertEquals(-1, HttpCacheEntry.parseDate("0"));
+        assertEquals(-1, HttpCacheEntry.parseDate("yesterday"));
+    }
+
+    public void testMaxAgeCountsFromLocalClock() {
+        // The server clock is 20 years behind, freshness must not depend on it
+        final Response response = new Response()
+                .header("Date", "Sun, 06 Nov 1994 08:49:37 GMT")
+                .header("Cache-Control", "public, max-age=60");
+        assertEquals(NOW + 60000, HttpCacheEntry.computeExpires(response, NOW));
+    }
+
+    public void testMaxAgeLessAge() {
+        final Response response = new Response()
+                .header("Cache-Control", "max-age=60")
+                .header("Age", "50");
+        assertEquals(NOW + 10000, HttpCacheEntry.computeExpires(response, NOW));
+    }
+
+    public void testInvalidAgeIgnored() {
+        final Response response = new Response()
+                .header("Cache-Control", "max-age=60")
+                .header("Age", "soon");
+        assertEquals(NOW + 60000, HttpCacheEntry.computeExpires(response, NOW));
+    }
+
+    public void testNoCache() {
+        final Response response = new Response().header("Cache-Control", "max-age=60, No-Cache");
+        assertEquals(0, HttpCacheEntry.computeExpires(response, NOW));
+    }
+
+    public void testNoStoreIsNotStorable() {
+        assertFalse(HttpCacheEntry.fromResponse(new Response()
+                .header("Cache-Control", "max-age=60, No-Store")).isStorable());
+        assertTrue(HttpCacheEntry.fromResponse(new Response()
+                .header("Cache-Control", "max-age=60")).isStorable());
+        assertTrue(HttpCacheEntry.fromResponse(new Response()).isStorable());
+    }
+
+    public void testHugeMaxAgeIsClamped() {
+        final long clamped = NOW + 2147483648L * 1000;
+        assertEquals(clamped, HttpCacheEntry.computeExpires(new Response()
+                .header("Cache-Control", "max-age=9223372036854775807"), NOW));
+        assertEquals(clamped, HttpCacheEntry.computeExpires(new Response()
+                .header("Cache-Control", "max-age=99999999999999999999999"), NOW));
+    }
+
+    public void testDirectivesIgnoreDefaultLocale() {
+        final Locale locale = Locale.getDefault();
+        // Turkish lowercases "I" to a dotless i
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            final Response response = new Response().header("Cache-Control", "PRIVATE, MAX-AGE=60");
+            assertEquals(NOW + 60000, HttpCacheEntry.computeExpires(response, NOW));
+            response.header("Cache-Control", "NO-CACHE");
+            assertEquals(0, HttpCacheEntry.computeExpires(response, NOW));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    public void testExpiresRelativeToDate() {
+        final Response response = new Response()
+                .header("Date", "Sun, 06 Nov 1994 08:49:37 GMT")
+                .header("Expires", "Sun, 06 Nov 1994 09:49:37 GMT");
+        assertEquals(NOW + 3600000, HttpCacheEntry.computeExpires(response, NOW));
+    }
+
+    public void testInvalidExpiresIsExpired() {
+        final Response response = new Response().header("Expires", "0");
+        assertEquals(0, HttpCacheEntry.computeExpires(response, NOW));
+    }
+
+    public void testHeuristicFromLastModified() {
+        // 10% of the 10 hours since the last modification
+        final Response response = new Response()
+                .header("Date", "Sun, 06 Nov 1994 18:49:37 GMT")
+                .header("Last-Modified", "Sun, 06 Nov 1994 08:49:37 GMT");
+        assertEquals(NOW + 3600000, HttpCacheEntry.computeExpires(response, NOW));
+    }
+
+    public void testNeverExpiresWithoutFreshness() {
+        assertEquals(HttpCacheEntry.NEVER_EXPIRES, HttpCacheEntry.computeExpires(new Response(), NOW));
+    }
+
+    public void testValidators() {
+        final HttpCacheEntry entry = HttpCacheEntry.fromResponse(new Response()
+                .header("ETag", "W/\"abc\"")
+                .header("Last-Modified", "Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertTrue(entry.hasValidators());
+        final Map<String, String> headers = new HashMap<String, String>();
+        entry.addConditionalHeaders(headers);
+        assertEquals("W/\"abc\"", headers.get("If-None-Match"));
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", headers.get("If-Modified-Since"));
+        // A weak ETag can't be used in If-Range
+        headers.clear();
+        entry.addIfRangeHeader(headers);
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", headers.get("If-Range"));
+    }
+
+    /**
+     * A response with canned headers.
+     */
+    private static class Response implements HttpTransport.Response {
+        private final Map<String, String> mmHeaders = new HashMap<String, String>();
+
+        public Response header(String name, String value) {
+            mmHeaders.put(name, value);
+            return this;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return 200;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mmHeaders.get(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return 0;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+}
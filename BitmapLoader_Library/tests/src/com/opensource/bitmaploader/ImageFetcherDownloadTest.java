@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Tests of the downloads of {@link ImageFetcher}, through a {@link FakeTransport}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class ImageFetcherDownloadTest extends AndroidTestCase {
+    private static final byte[] PNG = new byte[] {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R',
+    };
+
+    private File mCacheDir;
+    private FakeTransport mTransport;
+    private ImageFetcher mFetcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheDir = new File(getContext().getCacheDir(), "ImageFetcherDownloadTest" + System.nanoTime());
+        mTransport = new FakeTransport();
+        mFetcher = new ImageFetcher(getContext(), 100);
+        mFetcher.setImageCache(new ImageCache(getContext(),
+                new ImageCache.ImageCacheParams(mCacheDir, "images")));
+        mFetcher.setHttpTransport(mTransport);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(mCacheDir);
+        super.tearDown();
+    }
+
+    public void testDownloadToCache() throws IOException {
+        final String url = url("fresh");
+        mTransport.enqueue(url, HttpURLConnection.HTTP_OK)
+                .header("Content-Type", "image/png")
+                .header("Cache-Control", "max-age=3600")
+                .body(PNG);
+        final File file = mFetcher.downloadBitmap(getContext(), url, null);
+        assertNotNull(file);
+        assertTrue(Arrays.equals(PNG, read(file)));
+        // Fresh, no request
+        assertEquals(file, mFetcher.downloadBitmap(getContext(), url, null));
+        assertEquals(1, mTransport.getRequestCount(url));
+    }
+
+    public void testStaleFileIsRevalidated() throws IOException {
+        final String url = url("stale");
+        mTransport.enqueue(url, HttpURLConnection.HTTP_OK)
+                .header("Content-Type", "image/png")
+                .header("Cache-Control", "no-cache")
+                .header("ETag", "\"v1\"")
+                .body(PNG);
+        mTransport.enqueue(url, HttpURLConnection.HTTP_NOT_MODIFIED)
+                .header("ETag", "\"v1\"");
+        final File file = mFetcher.downloadBitmap(getContext(), url, null);
+        assertNotNull(file);
+        assertEquals(file, mFetcher.downloadBitmap(getContext(), url, null));
+        assertEquals(2, mTransport.getRequestCount(url));
+        assertEquals("\"v1\"", mTransport.getRequests().get(1).mmHeaders.get("If-None-Match"));
+        assertTrue(Arrays.equals(PNG, read(file)));
+    }
+
+    public void testNoStoreIsNotCached() throws IOException {
+        final String url = url("no-store");
+        for (int i = 0; i < 2; i++) {
+            mTransport.enqueue(url, HttpURLConnection.HTTP_OK)
+                    .header("Content-Type", "image/png")
+                    .header("Cache-Control", "no-store")
+                    .header("ETag", "\"v1\"")
+                    .body(PNG);
+        }
+        final File file = mFetcher.downloadBitmap(getContext(), url, null);
+        assertNotNull(file);
+        assertTrue(Arrays.equals(PNG, read(file)));
+        assertTrue(file.getName().endsWith(DiskLruCache.TEMP_SUFFIX));
+        assertFalse(new File(file.getPath() + DiskLruCache.SIDECAR_SUFFIX).exists());
+        // Not revalidated either, downloaded again
+        assertNotNull(mFetcher.downloadBitmap(getContext(), url, null));
+        assertEquals(2, mTransport.getRequestCount(url));
+        assertNull(mTransport.getRequests().get(1).mmHeaders.get("If-None-Match"));
+    }
+
+    public void testClientErrorIsNotRetried() {
+        final String url = url("missing");
+        mTransport.enqueue(url, HttpURLConnection.HTTP_NOT_FOUND);
+        assertNull(mFetcher.downloadBitmap(getContext(), url, null));
+        assertEquals(1, mTransport.getRequestCount(url));
+    }
+
+    public void testErrorPageIsDropped() {
+        final String url = url("error-page");
+        final FakeTransport.FakeResponse response = mTransport.enqueue(url, HttpURLConnection.HTTP_OK)
+                .header("Content-Type", "text/html")
+                .body("<html></html>".getBytes());
+        assertNull(mFetcher.downloadBitmap(getContext(), url, null));
+        assertTrue(response.isClosed());
+        assertEquals(1, mTransport.getRequestCount(url));
+    }
+
+    public void testTransientErrorIsRetried() {
+        final String url = url("retried");
+        mFetcher.setRetryPolicy(new FixedDelayRetryPolicy(0));
+        mTransport.enqueue(url, HttpURLConnection.HTTP_UNAVAILABLE);
+        mTransport.enqueue(url, HttpURLConnection.HTTP_OK)
+                .header("Content-Type", "image/png")
+                .body(PNG);
+        assertNotNull(mFetcher.downloadBitmap(getContext(), url, null));
+        assertEquals(2, mTransport.getRequestCount(url));
+    }
+
+    public void testBackoffGivesBackTurnOfHost() throws Exception {
+        // One request at a time, a retry waiting in its backoff must not hold the host
+        mFetcher.setNetworkScheduler(new NetworkScheduler(1, 1));
+        mFetcher.setRetryPolicy(new FixedDelayRetryPolicy(500));
+        final String retried = url("retried");
+        final String other = url("other");
+        mTransport.enqueue(retried, HttpURLConnection.HTTP_UNAVAILABLE);
+        mTransport.enqueue(retried, HttpURLConnection.HTTP_OK)
+                .header("Content-Type", "image/png")
+                .body(PNG);
+        mTransport.enqueue(other, HttpURLConnection.HTTP_OK)
+                .header("Content-Type", "image/png")
+                .body(PNG);
+        final long[] retriedBytes = new long[1];
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                retriedBytes[0] = mFetcher.fetchSource(retried);
+            }
+        });
+        thread.start();
+        final long end = System.currentTimeMillis() + 5000;
+        while (mTransport.getRequestCount(retried) == 0) {
+            assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(5);
+        }
+        assertEquals(PNG.length, mFetcher.fetchSource(other));
+        thread.join(5000);
+        assertEquals(PNG.length, retriedBytes[0]);
+        final List<FakeTransport.Request> requests = mTransport.getRequests();
+        assertEquals(3, requests.size());
+        assertEquals(retried, requests.get(0).mmUrl);
+        assertEquals(other, requests.get(1).mmUrl);
+        assertEquals(retried, requests.get(2).mmUrl);
+    }
+
+    private String url(String name) {
+        // Unique per test, so that the negative cache and the http caches of other tests don't answer
+        return "http://fake.test/" + name + System.nanoTime() + ".png";
+    }
+
+    private static byte[] read(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            int count;
+            while (offset < data.length && (count = in.read(data, offset, data.length - offset)) > 0) {
+                offset += count;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class FixedDelayRetryPolicy extends RetryPolicy {
+        private final long mmDelay;
+
+        public FixedDelayRetryPolicy(long delay) {
+            super(1, delay, delay);
+            mmDelay = delay;
+        }
+
+        @Override
+        public long getDelay(int retries) {
+            return mmDelay;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the order and the drop policy of {@link LoadExecutor}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class LoadExecutorTest extends TestCase {
+    private static final long TIMEOUT = 5; // s
+
+    private final List<String> mRun = new ArrayList<String>();
+    private final List<String> mDropped = new ArrayList<String>();
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private LoadExecutor mExecutor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = new LoadExecutor("test", 1);
+        // Hold the only thread, so the next tasks wait in the queues
+        final CountDownLatch started = new CountDownLatch(1);
+        mExecutor.execute(new LoadExecutor.Task() {
+            @Override
+            protected void runStage() {
+                started.countDown();
+                try {
+                    mRelease.await(TIMEOUT, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRelease.countDown();
+        super.tearDown();
+    }
+
+    public void testHigherPriorityAndMostRecentRunFirst() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(5);
+        mExecutor.execute(new NamedTask("background", Priority.BACKGROUND, done));
+        mExecutor.execute(new NamedTask("prefetch1", Priority.PREFETCH, done));
+        mExecutor.execute(new NamedTask("visible", Priority.VISIBLE, done));
+        mExecutor.execute(new NamedTask("prefetch2", Priority.PREFETCH, done));
+        mExecutor.execute(new NamedTask("immediate", Priority.IMMEDIATE, done));
+        assertEquals(5, mExecutor.getQueueSize());
+        mRelease.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertRun("immediate", "visible", "prefetch2", "prefetch1", "background");
+    }
+
+    public void testOldestOfLowestPriorityIsDropped() throws InterruptedException {
+        mExecutor.setMaxQueueSize(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        mExecutor.execute(new NamedTask("background", Priority.BACKGROUND, done));
+        mExecutor.execute(new NamedTask("prefetch1", Priority.PREFETCH, done));
+        // Full, the background task goes first
+        mExecutor.execute(new NamedTask("prefetch2", Priority.PREFETCH, done));
+        assertDropped("background");
+        // Then the oldest prefetch
+        mExecutor.execute(new NamedTask("prefetch3", Priority.PREFETCH, done));
+        assertDropped("background", "prefetch1");
+        assertEquals(2, mExecutor.getDroppedCount());
+        assertEquals(2, mExecutor.getQueueSize());
+        mRelease.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertRun("prefetch3", "prefetch2");
+    }
+
+    public void testNewTaskOfLowestPriorityIsDropped() throws InterruptedException {
+        mExecutor.setMaxQueueSize(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        mExecutor.execute(new NamedTask("prefetch", Priority.PREFETCH, done));
+        mExecutor.execute(new NamedTask("background", Priority.BACKGROUND, done));
+        assertDropped("background");
+        mRelease.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertRun("prefetch");
+    }
+
+    public void testVisibleTasksAreNeverDropped() throws InterruptedException {
+        mExecutor.setMaxQueueSize(1);
+        final CountDownLatch done = new CountDownLatch(4);
+        mExecutor.execute(new NamedTask("prefetch", Priority.PREFETCH, done));
+        mExecutor.execute(new NamedTask("visible1", Priority.VISIBLE, done));
+        mExecutor.execute(new NamedTask("visible2", Priority.VISIBLE, done));
+        mExecutor.execute(new NamedTask("immediate", Priority.IMMEDIATE, done));
+        assertDropped();
+        mRelease.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertRun("immediate", "visible2", "visible1", "prefetch");
+    }
+
+    public void testRaisedPriorityLeavesDroppableQueue() throws InterruptedException {
+        mExecutor.setMaxQueueSize(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final NamedTask raised = new NamedTask("raised", Priority.PREFETCH, done);
+        mExecutor.execute(raised);
+        mExecutor.execute(new NamedTask("visible", Priority.VISIBLE, done));
+        raised.setPriority(Priority.IMMEDIATE);
+        // The droppable queue is empty again, so nothing is dropped for this one
+        mExecutor.execute(new NamedTask("prefetch", Priority.PREFETCH, done));
+        assertDropped();
+        mRelease.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertRun("raised", "visible", "prefetch");
+    }
+
+    public void testLoweredPriorityEntersDroppableQueue() throws InterruptedException {
+        mExecutor.setMaxQueueSize(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final NamedTask lowered = new NamedTask("lowered", Priority.VISIBLE, done);
+        mExecutor.execute(lowered);
+        lowered.setPriority(Priority.PREFETCH);
+        mExecutor.execute(new NamedTask("prefetch", Priority.PREFETCH, done));
+        assertDropped("lowered");
+        mExecutor.execute(new NamedTask("visible", Priority.VISIBLE, done));
+        mRelease.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertRun("visible", "prefetch");
+    }
+
+    public void testDequeuedTaskDoesNotRun() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final NamedTask cancelled = new NamedTask("cancelled", Priority.PREFETCH, done);
+        mExecutor.execute(cancelled);
+        mExecutor.execute(new NamedTask("prefetch", Priority.PREFETCH, done));
+        assertTrue(cancelled.dequeue());
+        assertFalse(cancelled.dequeue());
+        assertEquals(1, mExecutor.getQueueSize());
+        mRelease.countDown();
+        assertTrue(done.await(TIMEOUT, TimeUnit.SECONDS));
+        assertRun("prefetch");
+        assertEquals(0, mExecutor.getQueueSize());
+    }
+
+    private void assertRun(String... names) throws InterruptedException {
+        // Let the slots of dropped or dequeued tasks run too
+        Thread.sleep(50);
+        synchronized (mRun) {
+            assertEquals(java.util.Arrays.asList(names), mRun);
+        }
+    }
+
+    private void assertDropped(String... names) {
+        synchronized (mDropped) {
+            assertEquals(java.util.Arrays.asList(names), mDropped);
+        }
+    }
+
+    private class NamedTask extends LoadExecutor.Task {
+        private final String mmName;
+        private final CountDownLatch mmDone;
+
+        NamedTask(String name, Priority priority, CountDownLatch done) {
+            mmName = name;
+            mmDone = done;
+            setPriority(priority);
+        }
+
+        @Override
+        protected void runStage() {
+            synchronized (mRun) {
+                mRun.add(mmName);
+            }
+            mmDone.countDown();
+        }
+
+        @Override
+        protected void onDropped() {
+            synchronized (mDropped) {
+                mDropped.add(mmName);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.widget.ImageView;
+
+/**
+ * Benchmark of the allocations of {@link ImageWorker#loadImage(Object, ImageView)} on the UI
+ * thread, counted by the runtime with {@link Debug#getThreadAllocCount()}. The numbers are
+ * written to the log, the work of the loads in the background threads is not counted.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class LoadImageAllocationTest extends InstrumentationTestCase {
+    private static final String TAG = "LoadImageAllocationTest";
+    private static final int VIEW_COUNT = 16;
+    private static final int LOAD_COUNT = 1024;
+
+    private ImageWorker mWorker;
+    private ImageView[] mViews;
+    private ImageView[] mOtherViews;
+    // Created before counting, so that the keys are not counted
+    private final String[] mData = new String[LOAD_COUNT];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < LOAD_COUNT; i++) {
+            mData[i] = "data" + i;
+        }
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = getInstrumentation().getTargetContext();
+                mWorker = new NullWorker(context);
+                mViews = new ImageView[VIEW_COUNT];
+                mOtherViews = new ImageView[VIEW_COUNT];
+                for (int i = 0; i < VIEW_COUNT; i++) {
+                    mViews[i] = new ImageView(context);
+                    mOtherViews[i] = new ImageView(context);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < VIEW_COUNT; i++) {
+                    ImageWorker.cancelWork(mViews[i]);
+                    ImageWorker.cancelWork(mOtherViews[i]);
+                }
+            }
+        });
+        super.tearDown();
+    }
+
+    public void testAllocationsPerLoad() {
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Warm up the drawable pools, the executors and the classes
+                for (int i = 0; i < LOAD_COUNT; i++) {
+                    mWorker.loadImage(mData[i], mViews[i % VIEW_COUNT]);
+                }
+
+                // Each view detaches from its load and starts a new one
+                startCounting();
+                for (int i = 0; i < LOAD_COUNT; i++) {
+                    mWorker.loadImage(mData[i], mViews[(i + 1) % VIEW_COUNT]);
+                }
+                report("new load", LOAD_COUNT);
+
+                // Other views join the loads in flight (the UI thread is held, none finishes)
+                startCounting();
+                for (int i = LOAD_COUNT - VIEW_COUNT; i < LOAD_COUNT; i++) {
+                    mWorker.loadImage(mData[i], mOtherViews[(i + 1) % VIEW_COUNT]);
+                }
+                report("joined load", VIEW_COUNT);
+
+                // The views are already bound to the loads of the same data
+                startCounting();
+                for (int i = LOAD_COUNT - VIEW_COUNT; i < LOAD_COUNT; i++) {
+                    mWorker.loadImage(mData[i], mViews[(i + 1) % VIEW_COUNT]);
+                }
+                report("same load", VIEW_COUNT);
+            }
+        });
+    }
+
+    private static void startCounting() {
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+    }
+
+    private static void report(String name, int loads) {
+        final int count = Debug.getThreadAllocCount();
+        final int size = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+        Log.i(TAG, name + " - " + ((float) count / loads) + " objects, "
+                + ((float) size / loads) + " bytes per loadImage");
+    }
+
+    /**
+     * Loads nothing, so that only the work of the worker itself is counted.
+     */
+    private static class NullWorker extends ImageWorker {
+
+        public NullWorker(Context context) {
+            super(context);
+        }
+
+        @Override
+        protected Bitmap processBitmap(Object data, Bitmap.Config config, LoadListener l) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link NetworkScheduler}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class NetworkSchedulerTest extends TestCase {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final List<String> mOrder = new ArrayList<String>();
+
+    public void testPerHostLimit() throws Exception {
+        final NetworkScheduler scheduler = new NetworkScheduler(6, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<FutureTask<String>> tasks = new ArrayList<FutureTask<String>>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(scheduler.submit("http://a.test/" + i, blocking("a" + i, release)));
+        }
+        tasks.add(scheduler.submit("http://b.test/0", blocking("b0", release)));
+        waitForRunning(scheduler, "a.test", 2);
+        assertEquals(2, scheduler.getQueueDepth("a.test"));
+        assertEquals(1, scheduler.getRunningCount("b.test"));
+        assertEquals(0, scheduler.getQueueDepth("b.test"));
+        release.countDown();
+        for (FutureTask<String> task : tasks) {
+            task.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        waitForIdle(scheduler, "a.test");
+        assertTrue(scheduler.getQueueDepths().isEmpty());
+    }
+
+    public void testTotalLimit() throws Exception {
+        final NetworkScheduler scheduler = new NetworkScheduler(2, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FutureTask<String> a = scheduler.submit("http://a.test/0", blocking("a0", release));
+        final FutureTask<String> b = scheduler.submit("http://b.test/0", blocking("b0", release));
+        final FutureTask<String> c = scheduler.submit("http://c.test/0", blocking("c0", release));
+        waitForRunning(scheduler, "b.test", 1);
+        assertEquals(1, scheduler.getQueueDepth("c.test"));
+        release.countDown();
+        assertEquals("c0", c.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        a.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        b.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void testHostsTakeTurns() throws Exception {
+        final NetworkScheduler scheduler = new NetworkScheduler(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FutureTask<String> blocker = scheduler.submit("http://x.test/0", blocking("x0", release));
+        waitForRunning(scheduler, "x.test", 1);
+        scheduler.submit("http://a.test/1", recording("a1"));
+        scheduler.submit("http://a.test/2", recording("a2"));
+        scheduler.submit("http://a.test/3", recording("a3"));
+        final FutureTask<String> last = scheduler.submit("http://b.test/1", recording("b1"));
+        release.countDown();
+        blocker.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        last.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        waitForIdle(scheduler, "a.test");
+        // A host with many requests doesn't hold up the others
+        assertEquals(Arrays.asList("x0", "a1", "b1", "a2", "a3"), getOrder());
+    }
+
+    public void testBackgroundRunsWhenNothingWaits() throws Exception {
+        final NetworkScheduler scheduler = new NetworkScheduler(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit("http://x.test/0", blocking("x0", release));
+        waitForRunning(scheduler, "x.test", 1);
+        final FutureTask<String> background = scheduler.submit("http://y.test/0", recording("y0"), true);
+        scheduler.submit("http://z.test/0", recording("z0"));
+        assertEquals(1, scheduler.getBackgroundQueueDepth());
+        release.countDown();
+        background.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("x0", "z0", "y0"), getOrder());
+    }
+
+    public void testPrioritizeMovesBackgroundRequest() throws Exception {
+        final NetworkScheduler scheduler = new NetworkScheduler(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit("http://x.test/0", blocking("x0", release));
+        waitForRunning(scheduler, "x.test", 1);
+        final FutureTask<String> background = scheduler.submit("http://y.test/0", recording("y0"), true);
+        scheduler.prioritize("http://y.test/0");
+        assertEquals(0, scheduler.getBackgroundQueueDepth());
+        assertEquals(1, scheduler.getQueueDepth("y.test"));
+        release.countDown();
+        assertEquals("y0", background.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    public void testCallbackGetsResult() throws Exception {
+        final NetworkScheduler scheduler = new NetworkScheduler();
+        final Callback<String> callback = new Callback<String>();
+        scheduler.execute("http://a.test/0", recording("a0"), false, null, callback);
+        assertEquals("a0", callback.await());
+    }
+
+    public void testCallbackGetsError() throws Exception {
+        final NetworkScheduler scheduler = new NetworkScheduler();
+        final Callback<String> callback = new Callback<String>();
+        scheduler.execute("http://a.test/0", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IOException("failed");
+            }
+        }, false, null, callback);
+        callback.await();
+        assertTrue(callback.mmError instanceof IOException);
+    }
+
+    public void testCancelDropsWaitingRequest() throws Exception {
+        final NetworkScheduler scheduler = new NetworkScheduler(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FutureTask<String> blocker = scheduler.submit("http://x.test/0", blocking("x0", release));
+        waitForRunning(scheduler, "x.test", 1);
+        final CancellationSignal signal = new CancellationSignal();
+        final Callback<String> callback = new Callback<String>();
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        scheduler.execute("http://a.test/0", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                ran.set(true);
+                return "a0";
+            }
+        }, false, signal, callback);
+        assertEquals(1, scheduler.getQueueDepth("a.test"));
+        signal.cancel();
+        // Delivered at once, in this thread
+        assertTrue(callback.mmLatch.getCount() == 0);
+        assertTrue(callback.mmError instanceof CancellationException);
+        assertEquals(0, scheduler.getQueueDepth("a.test"));
+        release.countDown();
+        blocker.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        waitForIdle(scheduler, "x.test");
+        assertFalse(ran.get());
+    }
+
+    public void testCancelKeepsResultOfRunningRequest() throws Exception {
+        final NetworkScheduler scheduler = new NetworkScheduler();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CancellationSignal signal = new CancellationSignal();
+        final Callback<String> callback = new Callback<String>();
+        final CountDownLatch started = new CountDownLatch(1);
+        scheduler.execute("http://a.test/0", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                release.await();
+                return "a0";
+            }
+        }, false, signal, callback);
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        signal.cancel();
+        release.countDown();
+        // A request which has started ends with its own result
+        assertEquals("a0", callback.await());
+    }
+
+    public void testCancelledSignalNeverQueues() throws Exception {
+        final NetworkScheduler scheduler = new NetworkScheduler();
+        final CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        final Callback<String> callback = new Callback<String>();
+        scheduler.execute("http://a.test/0", recording("a0"), false, signal, callback);
+        assertTrue(callback.mmError instanceof CancellationException);
+        assertEquals(0, scheduler.getQueueDepth("a.test"));
+        assertEquals(0, scheduler.getRunningCount("a.test"));
+    }
+
+    private Callable<String> recording(final String name) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                synchronized (mOrder) {
+                    mOrder.add(name);
+                }
+                return name;
+            }
+        };
+    }
+
+    private Callable<String> blocking(final String name, final CountDownLatch release) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                synchronized (mOrder) {
+                    mOrder.add(name);
+                }
+                release.await();
+                return name;
+            }
+        };
+    }
+
+    private List<String> getOrder() {
+        synchronized (mOrder) {
+            return new ArrayList<String>(mOrder);
+        }
+    }
+
+    private static void waitForRunning(NetworkScheduler scheduler, String host, int count)
+            throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT_SECONDS * 1000;
+        while (scheduler.getRunningCount(host) != count) {
+            assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void waitForIdle(NetworkScheduler scheduler, String host)
+            throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT_SECONDS * 1000;
+        while (scheduler.getRunningCount(host) != 0 || scheduler.getQueueDepth(host) != 0) {
+            assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(5);
+        }
+    }
+
+    private static class Callback<V> implements ResultCallback<V> {
+        private final CountDownLatch mmLatch = new CountDownLatch(1);
+        private volatile V mmResult;
+        private volatile Exception mmError;
+
+        @Override
+        public void onResult(V result) {
+            mmResult = result;
+            mmLatch.countDown();
+        }
+
+        @Override
+        public void onError(Exception error) {
+            mmError = error;
+            mmLatch.countDown();
+        }
+
+        public V await() throws InterruptedException {
+            assertTrue(mmLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            return mmResult;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the progress opt-out of {@link ProgressReporter}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class ProgressReporterTest extends TestCase {
+    private static final String URL = "http://a.test/image.png";
+
+    public void testNoReporterWithoutListener() {
+        assertNull(ProgressReporter.create(URL, null));
+    }
+
+    public void testNoReporterForSimpleListener() {
+        assertNull(ProgressReporter.create(URL, new QuietListener()));
+    }
+
+    public void testReporterForSimpleListenerWithProgress() {
+        assertNotNull(ProgressReporter.create(URL, new QuietListener() {
+            @Override
+            public void onProgressUpdate(Object url, long total, long downloaded) {
+            }
+        }));
+    }
+
+    public void testReporterForPlainListener() {
+        assertNotNull(ProgressReporter.create(URL, new LoadListener() {
+            @Override
+            public void onStart(ImageView imageView, Object data) {
+            }
+
+            @Override
+            public void onProgressUpdate(Object url, long total, long downloaded) {
+            }
+
+            @Override
+            public void onError(Object data, Object errorMsg) {
+            }
+
+            @Override
+            public void onLoaded(ImageView imageView, Bitmap bitmap) {
+            }
+
+            @Override
+            public void onSet(ImageView imageView, Bitmap bitmap) {
+            }
+
+            @Override
+            public void onCanceld(ImageView imageView, Object data) {
+            }
+        }));
+    }
+
+    private static class QuietListener extends SimpleLoadListener {
+
+        @Override
+        public void onStart(ImageView imageView, Object data) {
+        }
+
+        @Override
+        public void onSet(ImageView imageView, Bitmap bitmap) {
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link ResponseValidator}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class ResponseValidatorTest extends TestCase {
+    private static final String URL = "http://a.test/image.png";
+
+    private final ResponseValidator mValidator = new ResponseValidator(1000);
+
+    public void testImageTypesAccepted() throws InvalidResponseException {
+        mValidator.checkHeaders(URL, "image/jpeg", 100);
+        mValidator.checkHeaders(URL, "Image/PNG; charset=binary", 100);
+        mValidator.checkHeaders(URL, "application/octet-stream", 100);
+        mValidator.checkHeaders(URL, "binary/octet-stream", 100);
+        mValidator.checkHeaders(URL, "", 100);
+        mValidator.checkHeaders(URL, null, -1);
+    }
+
+    public void testOtherTypesRejected() {
+        assertHeadersRejected("text/html; charset=utf-8", 100);
+        assertHeadersRejected("application/json", 100);
+    }
+
+    public void testContentLengthOverMaxRejected() throws InvalidResponseException {
+        mValidator.checkHeaders(URL, "image/jpeg", 1000);
+        assertHeadersRejected("image/jpeg", 1001);
+    }
+
+    public void testSizeCheckedWhileReading() throws InvalidResponseException {
+        mValidator.checkSize(URL, 1000);
+        try {
+            mValidator.checkSize(URL, 1001);
+            fail();
+        } catch (InvalidResponseException expected) {
+        }
+    }
+
+    public void testKnownSignaturesAccepted() throws InvalidResponseException {
+        assertSignatureAccepted(0xFF, 0xD8, 0xFF, 0xE0);
+        assertSignatureAccepted(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A);
+        assertSignatureAccepted('G', 'I', 'F', '8', '9', 'a');
+        assertSignatureAccepted('R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P');
+        assertSignatureAccepted('B', 'M');
+    }
+
+    public void testUnknownSignaturesRejected() {
+        assertSignatureRejected('<', '!', 'D', 'O', 'C', 'T', 'Y', 'P', 'E', ' ', 'h', 't');
+        assertSignatureRejected('{', '"');
+        // Cut short, like a PNG of 4 bytes
+        assertSignatureRejected(0x89, 'P', 'N', 'G');
+        assertSignatureRejected();
+    }
+
+    public void testSignatureLengthIsRespected() {
+        final byte[] header = bytes('B', 'M');
+        try {
+            mValidator.checkSignature(URL, header, 1);
+            fail();
+        } catch (InvalidResponseException expected) {
+        }
+    }
+
+    private void assertHeadersRejected(String contentType, long contentLength) {
+        try {
+            mValidator.checkHeaders(URL, contentType, contentLength);
+            fail(contentType + ", " + contentLength);
+        } catch (InvalidResponseException expected) {
+        }
+    }
+
+    private void assertSignatureAccepted(int... values) throws InvalidResponseException {
+        final byte[] header = bytes(values);
+        mValidator.checkSignature(URL, header, header.length);
+    }
+
+    private void assertSignatureRejected(int... values) {
+        final byte[] header = bytes(values);
+        try {
+            mValidator.checkSignature(URL, header, header.length);
+            fail();
+        } catch (InvalidResponseException expected) {
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link RetryPolicy}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class RetryPolicyTest extends TestCase {
+    private static final String URL = "http://a.test/image.png";
+
+    public void testTransientFailures() {
+        final RetryPolicy policy = new RetryPolicy();
+        assertTrue(policy.isTransient(new IOException("reset")));
+        assertTrue(policy.isTransient(new SocketTimeoutException("timeout")));
+        assertTrue(policy.isTransient(new HttpStatusException(URL, 500)));
+        assertTrue(policy.isTransient(new HttpStatusException(URL, 503)));
+        assertTrue(policy.isTransient(new HttpStatusException(URL, 408)));
+        assertTrue(policy.isTransient(new HttpStatusException(URL, 429)));
+    }
+
+    public void testPermanentFailures() {
+        final RetryPolicy policy = new RetryPolicy();
+        assertFalse(policy.isTransient(new HttpStatusException(URL, 400)));
+        assertFalse(policy.isTransient(new HttpStatusException(URL, 404)));
+        assertFalse(policy.isTransient(new HttpStatusException(URL, 410)));
+        assertFalse(policy.isTransient(new InvalidResponseException("Not an image - " + URL)));
+    }
+
+    public void testShouldRetryUpToMax() {
+        final RetryPolicy policy = new RetryPolicy(2, 100, 1000);
+        final IOException error = new IOException("reset");
+        assertTrue(policy.shouldRetry(error, 0));
+        assertTrue(policy.shouldRetry(error, 1));
+        assertFalse(policy.shouldRetry(error, 2));
+        assertFalse(policy.shouldRetry(new HttpStatusException(URL, 404), 0));
+    }
+
+    public void testNoRetry() {
+        assertEquals(0, RetryPolicy.NO_RETRY.getMaxRetries());
+        assertFalse(RetryPolicy.NO_RETRY.shouldRetry(new IOException("reset"), 0));
+        assertEquals(0, RetryPolicy.NO_RETRY.getDelay(0));
+    }
+
+    public void testDelayIsJitteredExponentialBackoff() {
+        final RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.getDelay(0) < 100);
+            assertTrue(policy.getDelay(2) < 400);
+            assertTrue(policy.getDelay(8) < 1000);
+            assertTrue(policy.getDelay(40) < 1000);
+            assertTrue(policy.getDelay(3) >= 0);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project.
+ *
+ *        yinglovezhuzhu@gmail.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opensource.bitmaploader;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link SingleFlight}.
+ *
+ * @author yinglovezhuzhu@gmail.com
+ */
+public class SingleFlightTest extends TestCase {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private ExecutorService mExecutor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testConcurrentCallsRunOnce() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final Callable<String> work = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                runs.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "result";
+            }
+        };
+        final Future<String> first = submit(flight, "key", work);
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(flight.isInFlight("key"));
+        final Future<String> second = submit(flight, "key", work);
+        final Future<String> third = submit(flight, "key", work);
+        // Let the joiners reach the call before it finishes
+        Thread.sleep(100);
+        release.countDown();
+        assertEquals("result", first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("result", second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("result", third.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        assertFalse(flight.isInFlight("key"));
+    }
+
+    public void testDifferentKeysRunSeparately() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        assertEquals("a", flight.execute("a", value("a")));
+        assertEquals("b", flight.execute("b", value("b")));
+    }
+
+    public void testCallAfterFinishRunsAgain() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        final AtomicInteger runs = new AtomicInteger();
+        final Callable<String> work = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return "run" + runs.incrementAndGet();
+            }
+        };
+        assertEquals("run1", flight.execute("key", work));
+        assertEquals("run2", flight.execute("key", work));
+    }
+
+    public void testCheckedExceptionIsWrapped() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        try {
+            flight.execute("key", new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new IOException("failed");
+                }
+            });
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertFalse(flight.isInFlight("key"));
+    }
+
+    public void testUncheckedExceptionIsRethrown() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        try {
+            flight.execute("key", new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+
+    public void testSharedResultIsCountedForEachCaller() throws Exception {
+        final SingleFlight<SharedValue> flight = new SingleFlight<SharedValue>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SharedValue value = new SharedValue();
+        final Callable<SharedValue> work = new Callable<SharedValue>() {
+            @Override
+            public SharedValue call() throws Exception {
+                started.countDown();
+                release.await();
+                return value;
+            }
+        };
+        final Future<SharedValue> first = submit(flight, "key", work);
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        final Future<SharedValue> second = submit(flight, "key", work);
+        Thread.sleep(100);
+        release.countDown();
+        assertSame(value, first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertSame(value, second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, value.mmCount);
+        assertEquals(0, value.mmReleased);
+    }
+
+    public void testAsyncCallsJoin() {
+        final SingleFlight<SharedValue> flight = new SingleFlight<SharedValue>();
+        final PendingWork<SharedValue> work = new PendingWork<SharedValue>();
+        final Result<SharedValue> first = new Result<SharedValue>();
+        final Result<SharedValue> second = new Result<SharedValue>();
+        flight.executeAsync("key", null, work, first);
+        flight.executeAsync("key", null, work, second);
+        assertEquals(1, work.mmStarts);
+        assertTrue(flight.isInFlight("key"));
+        final SharedValue value = new SharedValue();
+        work.mmCallback.onResult(value);
+        assertSame(value, first.mmResult);
+        assertSame(value, second.mmResult);
+        assertEquals(2, value.mmCount);
+        assertFalse(flight.isInFlight("key"));
+    }
+
+    public void testAsyncCancelledCallerLeaves() {
+        final SingleFlight<SharedValue> flight = new SingleFlight<SharedValue>();
+        final PendingWork<SharedValue> work = new PendingWork<SharedValue>();
+        final CancellationSignal signal = new CancellationSignal();
+        final Result<SharedValue> cancelled = new Result<SharedValue>();
+        final Result<SharedValue> other = new Result<SharedValue>();
+        flight.executeAsync("key", signal, work, cancelled);
+        flight.executeAsync("key", null, work, other);
+        signal.cancel();
+        // Told at once, the work goes on for the other caller
+        assertTrue(cancelled.mmError instanceof CancellationException);
+        assertFalse(work.mmSignal.isCanceled());
+        final SharedValue value = new SharedValue();
+        work.mmCallback.onResult(value);
+        assertSame(value, other.mmResult);
+        assertNull(cancelled.mmResult);
+        assertEquals(1, value.mmCount);
+    }
+
+    public void testAsyncLastCallerCancelsWork() {
+        final SingleFlight<SharedValue> flight = new SingleFlight<SharedValue>();
+        final PendingWork<SharedValue> work = new PendingWork<SharedValue>();
+        final CancellationSignal signal = new CancellationSignal();
+        final Result<SharedValue> result = new Result<SharedValue>();
+        flight.executeAsync("key", signal, work, result);
+        final CancellationSignal workSignal = work.mmSignal;
+        final ResultCallback<SharedValue> workCallback = work.mmCallback;
+        signal.cancel();
+        assertTrue(workSignal.isCanceled());
+        assertFalse(flight.isInFlight("key"));
+        // A new caller starts a new call
+        final Result<SharedValue> next = new Result<SharedValue>();
+        flight.executeAsync("key", null, work, next);
+        assertEquals(2, work.mmStarts);
+        // The late result of the cancelled call is counted for nobody
+        final SharedValue late = new SharedValue();
+        workCallback.onResult(late);
+        assertEquals(0, late.mmCount);
+        assertNull(next.mmResult);
+    }
+
+    public void testAsyncErrorGoesToEveryCaller() {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        final PendingWork<String> work = new PendingWork<String>();
+        final Result<String> first = new Result<String>();
+        final Result<String> second = new Result<String>();
+        flight.executeAsync("key", null, work, first);
+        flight.executeAsync("key", null, work, second);
+        final IOException error = new IOException("failed");
+        work.mmCallback.onError(error);
+        assertSame(error, first.mmError);
+        assertSame(error, second.mmError);
+    }
+
+    public void testBlockingCallOfAsyncWork() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        final String result = flight.execute("key", null, new SingleFlight.AsyncWork<String>() {
+            @Override
+            public void start(CancellationSignal signal, final ResultCallback<String> callback) {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult("result");
+                    }
+                });
+            }
+        });
+        assertEquals("result", result);
+    }
+
+    public void testBlockingCallOfAsyncWorkCancelled() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        final CancellationSignal signal = new CancellationSignal();
+        final PendingWork<String> work = new PendingWork<String>();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                signal.cancel();
+            }
+        });
+        try {
+            flight.execute("key", signal, work);
+            fail();
+        } catch (CancellationException e) {
+            assertTrue(work.mmSignal.isCanceled());
+        }
+    }
+
+    private <V> Future<V> submit(final SingleFlight<V> flight, final String key,
+                                 final Callable<V> work) {
+        return mExecutor.submit(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return flight.execute(key, work);
+            }
+        });
+    }
+
+    private static Callable<String> value(final String value) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return value;
+            }
+        };
+    }
+
+    private static class SharedValue implements SingleFlight.Shared {
+        private volatile int mmCount = -1;
+        private volatile int mmReleased = 0;
+
+        @Override
+        public void setShareCount(int count) {
+            mmCount = count;
+        }
+
+        @Override
+        public void release() {
+            mmReleased++;
+        }
+    }
+
+    private static class PendingWork<V> implements SingleFlight.AsyncWork<V> {
+        private int mmStarts = 0;
+        private volatile CancellationSignal mmSignal;
+        private volatile ResultCallback<V> mmCallback;
+
+        @Override
+        public void start(CancellationSignal signal, ResultCallback<V> callback) {
+            mmStarts++;
+            mmSignal = signal;
+            mmCallback = callback;
+        }
+    }
+
+    private static class Result<V> implements ResultCallback<V> {
+        private V mmResult;
+        private Exception mmError;
+
+        @Override
+        public void onResult(V result) {
+            mmResult = result;
+        }
+
+        @Override
+        public void onError(Exception error) {
+            mmError = error;
+        }
+    }
+}